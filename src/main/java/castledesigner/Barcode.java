@@ -20,7 +20,14 @@
  */
 package castledesigner;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 /**
  * Adds or reads a bar code from a lossless image.
@@ -37,6 +44,18 @@ public class Barcode
 	private static final int END_CODE = 255 << 4;
 	private static final int OPAQUE_MASK = 0xff000000;
 
+	/*
+	 * The dense layout packs four 6 bit characters into the 24 bits of each
+	 * pixel. Its first pixel is the marker, which can't be mistaken for a
+	 * code above as its lowest 4 bits are set, and its second pixel is the
+	 * number of characters.
+	 */
+	private static final int DENSE_MARKER = 0xa5a001;
+	private static final int DENSE_HEADER_PIXELS = 2;
+	private static final int DENSE_SYMBOLS = 4;
+	//One past the highest value of Converter
+	private static final int DENSE_SEPARATOR = 61;
+
 	//Must be > border width
 	private static final int startingY = 2;
 	//Must be > border width
@@ -48,25 +67,61 @@ public class Barcode
 
 	private static final int border = 0xff660066;
 
+	//The number of columns extractBarcode reads in one go
+	private static final int EXTRACT_COLUMNS = 16;
+
 	/**
 	 * Embeds the barcode string into the image. The barcode appears
 	 * near the top of the image as mostly black/blue with a purple border.
+	 * Barcodes too long for the image a character per pixel are packed
+	 * four characters to a pixel instead.
 	 *
 	 * @param bufferedImage the original image
 	 * @param barcode the string to be embedded into the image
 	 */
 	public static void embedBarcode(BufferedImage bufferedImage, String barcode)
+	{
+		checkEmbedSize(bufferedImage);
+
+		int[] codes = encodeCodes(barcode);
+		if (getColumns(codes.length) > getMaximumColumns(bufferedImage)) codes = encodeDenseCodes(barcode);
+
+		drawStrip(bufferedImage, codes);
+	}
+
+	/**
+	 * Embeds the barcode string into the image in the given layout,
+	 * whether it's needed or not.
+	 *
+	 * @param bufferedImage the original image
+	 * @param barcode the string to be embedded into the image
+	 * @param dense true to pack four characters to a pixel
+	 */
+	static void embedBarcode(BufferedImage bufferedImage, String barcode, boolean dense)
+	{
+		checkEmbedSize(bufferedImage);
+		drawStrip(bufferedImage, dense ? encodeDenseCodes(barcode) : encodeCodes(barcode));
+	}
+
+	private static void checkEmbedSize(BufferedImage bufferedImage)
 	{
 		if (bufferedImage == null) throw new IllegalArgumentException("Null image");
 		if (bufferedImage.getWidth() < MINIMUM_WIDTH || bufferedImage.getHeight() <= MINIMUM_HEIGHT)
 		{
 			throw new IllegalArgumentException("Invalid image size");
 		}
+	}
 
-		int x = startingX;
-		int y = startingY;
-		for (char c : barcode.toCharArray())
+	/**
+	 * Returns the pixels of the barcode a character per pixel, ending with
+	 * the end code.
+	 */
+	private static int[] encodeCodes(String barcode)
+	{
+		int[] codes = new int[barcode.length() + 1];
+		for (int i=0; i<barcode.length(); i++)
 		{
+			char c = barcode.charAt(i);
 			int code;
 
 			if (c == 'Z') code = SEPARATOR_CODE;
@@ -79,35 +134,86 @@ public class Barcode
 				 */
 				code = Converter.alphaNumericToInt(c) << 4;
 			}
-			bufferedImage.setRGB(x, y, OPAQUE_MASK | code);
+			codes[i] = OPAQUE_MASK | code;
+		}
+		codes[barcode.length()] = OPAQUE_MASK | END_CODE;
+		return codes;
+	}
 
-			y++;
-			if (y > endingY)
-			{
-				y = startingY;
-				x++;
-			}
+	/**
+	 * Returns the pixels of the barcode four characters per pixel, after
+	 * the dense marker and the number of characters.
+	 */
+	private static int[] encodeDenseCodes(String barcode)
+	{
+		if (barcode.length() > 0xffffff) throw new IllegalArgumentException("Barcode too long for image");
+
+		int[] codes = new int[DENSE_HEADER_PIXELS + (barcode.length() + DENSE_SYMBOLS - 1) / DENSE_SYMBOLS];
+		Arrays.fill(codes, OPAQUE_MASK);
+		codes[0] |= DENSE_MARKER;
+		codes[1] |= barcode.length();
+
+		for (int i=0; i<barcode.length(); i++)
+		{
+			char c = barcode.charAt(i);
+			int symbol = c == 'Z' ? DENSE_SEPARATOR : Converter.alphaNumericToInt(c);
+
+			codes[DENSE_HEADER_PIXELS + i / DENSE_SYMBOLS] |= symbol << getDenseShift(i);
 		}
-		bufferedImage.setRGB(x, y, OPAQUE_MASK | END_CODE);
+		return codes;
+	}
+
+	/**
+	 * Returns where the character at the given index sits in its pixel,
+	 * the first character being in the highest bits.
+	 */
+	private static int getDenseShift(int index)
+	{
+		return 6 * (DENSE_SYMBOLS - 1 - index % DENSE_SYMBOLS);
+	}
 
-		//Fill in the final column to make it pretty
-		for (int j=y+1; j<=endingY; j++) bufferedImage.setRGB(x, j, 0xff000000);
+	private static int getColumns(int pixels)
+	{
+		int rows = endingY - startingY + 1;
+		return (pixels + rows - 1) / rows;
+	}
 
-		addBorder(bufferedImage, x);
+	/**
+	 * Returns the number of columns a barcode may take up, leaving room
+	 * for the border on the right.
+	 */
+	private static int getMaximumColumns(BufferedImage bufferedImage)
+	{
+		return bufferedImage.getWidth() - startingX - 1;
 	}
 
-	private static void addBorder(BufferedImage bufferedImage, int endX)
+	/**
+	 * Draws the barcode pixels down each column in turn, with the border
+	 * around them.
+	 */
+	private static void drawStrip(BufferedImage bufferedImage, int[] codes)
 	{
-		for (int x=startingX-1; x<=endX+1; x++)
-		{
-			bufferedImage.setRGB(x, startingY-1, border);
-			bufferedImage.setRGB(x, endingY+1, border);
-		}
-		for (int y=startingY; y<=endingY; y++)
+		int rows = endingY - startingY + 1;
+		int columns = getColumns(codes.length);
+		if (columns > getMaximumColumns(bufferedImage)) throw new IllegalArgumentException("Barcode too long for image");
+
+		/*
+		 * The whole strip, border and all, is drawn into an array and then
+		 * copied into the image in one go.
+		 */
+		int stripWidth = columns + 2;
+		int stripHeight = rows + 2;
+		int[] strip = new int[stripWidth * stripHeight];
+		Arrays.fill(strip, border);
+
+		for (int i=0; i<columns * rows; i++)
 		{
-			bufferedImage.setRGB(startingX-1, y, border);
-			bufferedImage.setRGB(endX+1, y, border);
+			//Fill in the final column to make it pretty
+			int code = i < codes.length ? codes[i] : 0xff000000;
+			strip[(i % rows + 1) * stripWidth + i / rows + 1] = code;
 		}
+
+		writePixels(bufferedImage, startingX - 1, startingY - 1, stripWidth, stripHeight, strip);
 	}
 
 	/**
@@ -119,33 +225,38 @@ public class Barcode
 	 */
 	public static String extractBarcode(BufferedImage bufferedImage) throws InvalidBarcodeException
 	{
-		if (bufferedImage.getWidth() < MINIMUM_WIDTH || bufferedImage.getHeight() < MINIMUM_HEIGHT)
-		{
-			throw new InvalidBarcodeException("Incorrect image size");
-		}
+		checkImageSize(bufferedImage.getWidth(), bufferedImage.getHeight());
+
+		int rows = endingY - startingY + 1;
+		int columns = bufferedImage.getWidth() - startingX;
 
 		try
 		{
-			StringBuffer s = new StringBuffer();
+			int[] header = readPixels(bufferedImage, startingX, startingY, 1, DENSE_HEADER_PIXELS);
+			if ((header[0] & 0xffffff) == DENSE_MARKER) return extractDenseBarcode(bufferedImage, header[1] & 0xffffff);
 
-			int x = startingX;
-			int y = startingY;
-			int rgb = bufferedImage.getRGB(x, y);
+			StringBuilder s = new StringBuilder();
 
-			//Some codes spill into the green bits because we're shifting by 4, so we
-			//need to mask with 0x00000fff
-			while ((rgb & 0xfff) != END_CODE)
+			//Read a chunk of columns at a time so short barcodes don't pay for the whole width
+			for (int x=0; x<columns; x+=EXTRACT_COLUMNS)
 			{
-				s.append(decodeRGB(rgb));
-				y++;
-				if (y > endingY)
+				int width = Math.min(EXTRACT_COLUMNS, columns - x);
+				int[] strip = readPixels(bufferedImage, startingX + x, startingY, width, rows);
+
+				//Some codes spill into the green bits because we're shifting by 4, so we
+				//need to mask with 0x00000fff
+				for (int i=0; i<width; i++)
 				{
-					y = startingY;
-					x++;
+					for (int y=0; y<rows; y++)
+					{
+						int rgb = strip[y * width + i];
+						if ((rgb & 0xfff) == END_CODE) return s.toString();
+
+						s.append(decodeRGB(rgb));
+					}
 				}
-				rgb = bufferedImage.getRGB(x, y);
 			}
-			return s.toString();
+			throw new InvalidBarcodeException("No end to the barcode");
 		}
 		catch (IllegalArgumentException e)
 		{
@@ -153,6 +264,104 @@ public class Barcode
 		}
 	}
 
+	private static String extractDenseBarcode(BufferedImage bufferedImage, int length) throws InvalidBarcodeException
+	{
+		int rows = endingY - startingY + 1;
+		int columns = getColumns(DENSE_HEADER_PIXELS + (length + DENSE_SYMBOLS - 1) / DENSE_SYMBOLS);
+		if (columns > bufferedImage.getWidth() - startingX) throw new InvalidBarcodeException("No end to the barcode");
+
+		int[] strip = readPixels(bufferedImage, startingX, startingY, columns, rows);
+		char[] s = new char[length];
+		for (int i=0; i<length; i++)
+		{
+			int pixel = DENSE_HEADER_PIXELS + i / DENSE_SYMBOLS;
+			int symbol = (strip[(pixel % rows) * columns + pixel / rows] >> getDenseShift(i)) & 0x3f;
+
+			s[i] = symbol == DENSE_SEPARATOR ? 'Z' : Converter.intToAlphaNumeric(symbol);
+		}
+		return new String(s);
+	}
+
+	/**
+	 * Checks an image of the given size is big enough to hold a barcode.
+	 *
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @throws InvalidBarcodeException if the image is too small
+	 */
+	static void checkImageSize(int width, int height) throws InvalidBarcodeException
+	{
+		if (!isImageSizeValid(width, height)) throw new InvalidBarcodeException("Incorrect image size");
+	}
+
+	/**
+	 * Returns true if an image of the given size is big enough to hold a
+	 * barcode.
+	 *
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @return true if a barcode could fit
+	 */
+	static boolean isImageSizeValid(int width, int height)
+	{
+		return width >= MINIMUM_WIDTH && height >= MINIMUM_HEIGHT;
+	}
+
+	/**
+	 * Returns the part of an image that hasFrame looks at: the top left
+	 * corner of the border around the barcode.
+	 *
+	 * @return the region holding the corner of the border
+	 */
+	static Rectangle getFrameRegion()
+	{
+		return new Rectangle(startingX - 1, startingY - 1, 2, endingY - startingY + 2);
+	}
+
+	/**
+	 * Returns true if the pixels of the frame region are the border colour
+	 * where every barcoded image has its border. The barcode itself isn't
+	 * checked, so a true result only means the image is worth reading.
+	 *
+	 * @param pixels the frame region as ARGB, a row at a time
+	 * @param rows the number of rows of the region to check, so that an
+	 *             image being decoded can be rejected early
+	 * @return true if the border is there
+	 */
+	static boolean hasFrame(int[] pixels, int rows)
+	{
+		Rectangle region = getFrameRegion();
+
+		//Along the top, then down the left hand side
+		for (int x=0; x<region.width && rows > 0; x++)
+		{
+			if (!isBorder(pixels[x])) return false;
+		}
+		for (int y=1; y<rows; y++)
+		{
+			if (!isBorder(pixels[y * region.width])) return false;
+		}
+		return true;
+	}
+
+	//Images saved without alpha come back opaque, so only compare the colour
+	private static boolean isBorder(int rgb)
+	{
+		return (rgb & 0xffffff) == (border & 0xffffff);
+	}
+
+	/**
+	 * Returns the part of an image that extractBarcode looks at: the top
+	 * rows, across the whole width.
+	 *
+	 * @param width the width of the image
+	 * @return the region holding the barcode
+	 */
+	static Rectangle getBarcodeRegion(int width)
+	{
+		return new Rectangle(0, 0, width, MINIMUM_HEIGHT);
+	}
+
 	private static char decodeRGB(int rgb)
 	{
 		int code = rgb & 0xfff;
@@ -160,4 +369,138 @@ public class Barcode
 		if (code == SEPARATOR_CODE) return 'Z';
 		else return Converter.intToAlphaNumeric(code >> 4);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns true if the image's pixels are ints in the same layout as
+	 * getRGB, give or take alpha, so they can be copied directly.
+	 */
+	private static boolean hasIntPixels(BufferedImage bufferedImage)
+	{
+		return (bufferedImage.getType() == BufferedImage.TYPE_INT_ARGB || bufferedImage.getType() == BufferedImage.TYPE_INT_RGB)
+			&& bufferedImage.getRaster().getDataBuffer() instanceof DataBufferInt
+			&& bufferedImage.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel;
+	}
+
+	/**
+	 * Returns true if the image's pixels are interleaved 8 bit samples with
+	 * no premultiplied alpha, which is what ImageIO gives us for most PNGs.
+	 */
+	private static boolean hasBytePixels(BufferedImage bufferedImage)
+	{
+		return (bufferedImage.getType() == BufferedImage.TYPE_4BYTE_ABGR || bufferedImage.getType() == BufferedImage.TYPE_3BYTE_BGR)
+			&& bufferedImage.getRaster().getDataBuffer() instanceof DataBufferByte
+			&& bufferedImage.getRaster().getSampleModel() instanceof PixelInterleavedSampleModel;
+	}
+
+	/**
+	 * Returns the index into the data buffer of the given pixel, or rather
+	 * of its first element.
+	 */
+	private static int getDataIndex(WritableRaster raster, int x, int y, int pixelStride, int scanlineStride)
+	{
+		return raster.getDataBuffer().getOffset()
+			+ (y - raster.getSampleModelTranslateY()) * scanlineStride
+			+ (x - raster.getSampleModelTranslateX()) * pixelStride;
+	}
+
+	/**
+	 * Reads a rectangle of pixels as ARGB, a row at a time, straight out of
+	 * the data buffer rather than through a call per pixel. Image types we
+	 * don't know the layout of fall back to a single bulk getRGB.
+	 */
+	static int[] readPixels(BufferedImage bufferedImage, int x, int y, int width, int height)
+	{
+		WritableRaster raster = bufferedImage.getRaster();
+		int[] pixels = new int[width * height];
+
+		if (hasIntPixels(bufferedImage))
+		{
+			int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+			int scanlineStride = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride();
+			int offset = getDataIndex(raster, x, y, 1, scanlineStride);
+			//Without alpha, getRGB would report the pixel as opaque
+			int alpha = bufferedImage.getType() == BufferedImage.TYPE_INT_RGB ? OPAQUE_MASK : 0;
+
+			for (int j=0; j<height; j++)
+			{
+				int row = offset + j * scanlineStride;
+				for (int i=0; i<width; i++) pixels[j * width + i] = data[row + i] | alpha;
+			}
+		}
+		else if (hasBytePixels(bufferedImage))
+		{
+			byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel)raster.getSampleModel();
+			int pixelStride = sampleModel.getPixelStride();
+			int scanlineStride = sampleModel.getScanlineStride();
+			int[] bandOffsets = sampleModel.getBandOffsets();
+			int offset = getDataIndex(raster, x, y, pixelStride, scanlineStride);
+			boolean hasAlpha = bandOffsets.length > 3;
+
+			for (int j=0; j<height; j++)
+			{
+				int index = offset + j * scanlineStride;
+				for (int i=0; i<width; i++, index+=pixelStride)
+				{
+					int a = hasAlpha ? data[index + bandOffsets[3]] & 0xff : 0xff;
+					pixels[j * width + i] = a << 24
+						| (data[index + bandOffsets[0]] & 0xff) << 16
+						| (data[index + bandOffsets[1]] & 0xff) << 8
+						| (data[index + bandOffsets[2]] & 0xff);
+				}
+			}
+		}
+		else bufferedImage.getRGB(x, y, width, height, pixels, 0, width);
+
+		return pixels;
+	}
+
+	/**
+	 * Writes a rectangle of ARGB pixels, a row at a time, straight into the
+	 * data buffer rather than through a call per pixel. Image types we
+	 * don't know the layout of fall back to a single bulk setRGB.
+	 */
+	static void writePixels(BufferedImage bufferedImage, int x, int y, int width, int height, int[] pixels)
+	{
+		WritableRaster raster = bufferedImage.getRaster();
+
+		if (hasIntPixels(bufferedImage))
+		{
+			int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+			int scanlineStride = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride();
+			int offset = getDataIndex(raster, x, y, 1, scanlineStride);
+			//Without alpha, the top byte is left clear as setRGB would
+			int mask = bufferedImage.getType() == BufferedImage.TYPE_INT_RGB ? 0x00ffffff : 0xffffffff;
+
+			for (int j=0; j<height; j++)
+			{
+				int row = offset + j * scanlineStride;
+				for (int i=0; i<width; i++) data[row + i] = pixels[j * width + i] & mask;
+			}
+		}
+		else if (hasBytePixels(bufferedImage))
+		{
+			byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel)raster.getSampleModel();
+			int pixelStride = sampleModel.getPixelStride();
+			int scanlineStride = sampleModel.getScanlineStride();
+			int[] bandOffsets = sampleModel.getBandOffsets();
+			int offset = getDataIndex(raster, x, y, pixelStride, scanlineStride);
+			boolean hasAlpha = bandOffsets.length > 3;
+
+			for (int j=0; j<height; j++)
+			{
+				int index = offset + j * scanlineStride;
+				for (int i=0; i<width; i++, index+=pixelStride)
+				{
+					int argb = pixels[j * width + i];
+					data[index + bandOffsets[0]] = (byte)(argb >> 16);
+					data[index + bandOffsets[1]] = (byte)(argb >> 8);
+					data[index + bandOffsets[2]] = (byte)argb;
+					if (hasAlpha) data[index + bandOffsets[3]] = (byte)(argb >>> 24);
+				}
+			}
+		}
+		else bufferedImage.setRGB(x, y, width, height, pixels, 0, width);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.Arrays;
+
+/**
+ * Turns binary data into text using only digits and letters, so that it
+ * can be pasted on forums and embedded in barcodes.
+ *
+ * Every 5 bytes become 7 characters, since 62^7 is more than 2^40. A last
+ * block of 1-4 bytes becomes 2, 3, 5 or 6 characters.
+ *
+ * @author David Green
+ */
+final class Base62
+{
+	private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+	private static final byte[] VALUES = new byte[128];
+	//The number of characters for a block of 0-5 bytes, and back again
+	private static final int[] BLOCK_CHARS = {0, 2, 3, 5, 6, 7};
+	private static final int[] BLOCK_BYTES = {0, -1, 1, 2, -1, 3, 4, 5};
+
+	static
+	{
+		Arrays.fill(VALUES, (byte)-1);
+		for (int i=0; i<DIGITS.length; i++) VALUES[DIGITS[i]] = (byte)i;
+	}
+
+	private Base62()
+	{
+	}
+
+	/**
+	 * Appends the text for the given bytes.
+	 */
+	static void encode(byte[] bytes, int length, StringBuilder out)
+	{
+		char[] block = new char[7];
+		for (int i=0; i<length; i+=5)
+		{
+			int blockBytes = Math.min(5, length - i);
+			long value = 0;
+			for (int j=0; j<blockBytes; j++) value = (value << 8) | (bytes[i + j] & 0xff);
+
+			int blockChars = BLOCK_CHARS[blockBytes];
+			for (int j=blockChars - 1; j>=0; j--)
+			{
+				block[j] = DIGITS[(int)(value % 62)];
+				value /= 62;
+			}
+			out.append(block, 0, blockChars);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes the given text decodes to.
+	 *
+	 * @throws IllegalArgumentException if the text is the wrong length
+	 */
+	static int getDecodedLength(int textLength)
+	{
+		int blockBytes = BLOCK_BYTES[textLength % 7];
+		if (blockBytes < 0) throw new IllegalArgumentException("Incomplete data in import");
+
+		return textLength / 7 * 5 + blockBytes;
+	}
+
+	/**
+	 * Decodes the text between start and end into the given array, which
+	 * must be at least getDecodedLength(end - start) long.
+	 *
+	 * @throws IllegalArgumentException if the text isn't valid
+	 */
+	static void decode(CharSequence text, int start, int end, byte[] bytes)
+	{
+		getDecodedLength(end - start);
+
+		int byteIndex = 0;
+		for (int i=start; i<end; i+=7)
+		{
+			int blockChars = Math.min(7, end - i);
+			long value = 0;
+			for (int j=0; j<blockChars; j++)
+			{
+				char c = text.charAt(i + j);
+				int digit = c < VALUES.length ? VALUES[c] : -1;
+				if (digit < 0) throw new IllegalArgumentException("Unexpected character in import: " + c);
+
+				value = value * 62 + digit;
+			}
+
+			int blockBytes = BLOCK_BYTES[blockChars];
+			if (value >>> (8 * blockBytes) != 0) throw new IllegalArgumentException("Invalid data in import");
+			for (int j=blockBytes - 1; j>=0; j--)
+			{
+				bytes[byteIndex + j] = (byte)value;
+				value >>>= 8;
+			}
+			byteIndex += blockBytes;
+		}
+	}
+}
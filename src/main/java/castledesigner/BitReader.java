@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+/**
+ * Reads values written by a BitWriter.
+ *
+ * @author David Green
+ * @see BitWriter
+ */
+final class BitReader
+{
+	private final byte[] bytes;
+	private final int length;
+	private long position = 0;
+
+	BitReader(byte[] bytes, int length)
+	{
+		this.bytes = bytes;
+		this.length = length;
+	}
+
+	/**
+	 * Reads a value of the given number of bits.
+	 *
+	 * @param bits the number of bits to read (0-64)
+	 * @return the value read
+	 * @throws IllegalArgumentException if there aren't enough bits left
+	 */
+	long read(int bits)
+	{
+		if (position + bits > (long)length * 8) throw new IllegalArgumentException("Unexpected end of import");
+
+		long value = 0;
+		for (int i=0; i<bits; i++)
+		{
+			int bit = (bytes[(int)(position >>> 3)] >>> (7 - (position & 7))) & 1;
+			value = (value << 1) | bit;
+			position++;
+		}
+		return value;
+	}
+
+	int readInt(int bits)
+	{
+		return (int)read(bits);
+	}
+
+	/**
+	 * @see BitWriter#writeVarint(int)
+	 */
+	int readVarint()
+	{
+		int value = 0;
+		for (int shift=0; shift<32; shift+=7)
+		{
+			int group = readInt(8);
+			value |= (group & 0x7f) << shift;
+			if ((group & 0x80) == 0) return value;
+		}
+		throw new IllegalArgumentException("Invalid varint in import");
+	}
+}
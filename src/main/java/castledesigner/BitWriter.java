@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of any number of bits to a growing byte array, most
+ * significant bit first.
+ *
+ * @author David Green
+ * @see BitReader
+ */
+final class BitWriter
+{
+	private byte[] bytes = new byte[64];
+	private long bitLength = 0;
+
+	/**
+	 * Writes the lowest bits of a value.
+	 *
+	 * @param value the value to write
+	 * @param bits the number of bits to write (0-64)
+	 */
+	void write(long value, int bits)
+	{
+		for (int i=bits - 1; i>=0; i--)
+		{
+			int byteIndex = (int)(bitLength >>> 3);
+			if (byteIndex == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+			if (((value >>> i) & 1) != 0) bytes[byteIndex] |= 0x80 >>> (bitLength & 7);
+			bitLength++;
+		}
+	}
+
+	/**
+	 * Writes a non-negative number in as few 8-bit groups as it needs,
+	 * 7 bits per group with the top bit set on all but the last.
+	 */
+	void writeVarint(int value)
+	{
+		if (value < 0) throw new IllegalArgumentException("Invalid varint: " + value);
+
+		while (value >= 0x80)
+		{
+			write(0x80 | (value & 0x7f), 8);
+			value >>>= 7;
+		}
+		write(value, 8);
+	}
+
+	/**
+	 * Returns the number of bits writeVarint would write.
+	 */
+	static int getVarintLength(int value)
+	{
+		int bits = 8;
+		while (value >= 0x80)
+		{
+			bits += 8;
+			value >>>= 7;
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the number of bytes written to so far.
+	 */
+	int getLength()
+	{
+		return (int)((bitLength + 7) >>> 3);
+	}
+
+	/**
+	 * Returns the array being written to, which is at least getLength()
+	 * long. Any unused bits of the last byte are zero.
+	 */
+	byte[] getBytes()
+	{
+		return bytes;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.Arrays;
+
+/**
+ * One bit per tile of a castle. Tile (x, y) is bit x * CASTLE_BOUNDRY_LENGTH + y,
+ * so each column of the grid is a run of consecutive bits and a rectangle
+ * can be tested a column at a time with a shift and a mask.
+ *
+ * @author David Green
+ */
+public final class Bitboard implements OccupancyQuery
+{
+	private static final int LENGTH = Castle.CASTLE_BOUNDRY_LENGTH;
+	private static final int SIZE = LENGTH * LENGTH;
+
+	private final long[] words = new long[(SIZE + 63) >>> 6];
+
+	Bitboard()
+	{
+	}
+
+	Bitboard(Bitboard bitboard)
+	{
+		System.arraycopy(bitboard.words, 0, words, 0, words.length);
+	}
+
+	void set(int index)
+	{
+		words[index >>> 6] |= 1L << index;
+	}
+
+	void clear(int index)
+	{
+		words[index >>> 6] &= ~(1L << index);
+	}
+
+	void clearAll()
+	{
+		Arrays.fill(words, 0);
+	}
+
+	/**
+	 * Returns true if the given tile is set.
+	 */
+	public boolean get(int x, int y)
+	{
+		int index = Castle.tileIndex(x, y);
+		return (words[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Returns the number of tiles set.
+	 */
+	public int cardinality()
+	{
+		int cardinality = 0;
+		for (long word : words) cardinality += Long.bitCount(word);
+
+		return cardinality;
+	}
+
+	public boolean intersects(int x, int y, int width, int height)
+	{
+		int fromX = Math.max(x, 0);
+		int toX = Math.min(x + width, LENGTH);
+		int fromY = Math.max(y, 0);
+		int toY = Math.min(y + height, LENGTH);
+
+		if (fromY >= toY) return false;
+
+		for (int i=fromX; i<toX; i++)
+		{
+			int from = i * LENGTH + fromY;
+			int to = i * LENGTH + toY;
+			int fromWord = from >>> 6;
+			int toWord = (to - 1) >>> 6;
+
+			//A column is shorter than a word, so spans at most two words
+			if (fromWord == toWord)
+			{
+				if ((words[fromWord] & (-1L << from) & (-1L >>> -to)) != 0) return true;
+			}
+			else if ((words[fromWord] & (-1L << from)) != 0 || (words[toWord] & (-1L >>> -to)) != 0) return true;
+		}
+		return false;
+	}
+
+	public int count(int x, int y, int width, int height)
+	{
+		int fromX = Math.max(x, 0);
+		int toX = Math.min(x + width, LENGTH);
+		int fromY = Math.max(y, 0);
+		int toY = Math.min(y + height, LENGTH);
+
+		if (fromY >= toY) return 0;
+
+		int count = 0;
+		for (int i=fromX; i<toX; i++)
+		{
+			int from = i * LENGTH + fromY;
+			int to = i * LENGTH + toY;
+			int fromWord = from >>> 6;
+			int toWord = (to - 1) >>> 6;
+
+			if (fromWord == toWord)
+			{
+				count += Long.bitCount(words[fromWord] & (-1L << from) & (-1L >>> -to));
+			}
+			else
+			{
+				count += Long.bitCount(words[fromWord] & (-1L << from));
+				count += Long.bitCount(words[toWord] & (-1L >>> -to));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a copy of the underlying bits, for use in bulk analysis.
+	 * Tile (x, y) is bit (x * CASTLE_BOUNDRY_LENGTH + y) % 64 of word
+	 * (x * CASTLE_BOUNDRY_LENGTH + y) / 64.
+	 *
+	 * @return a copy of the bits
+	 */
+	public long[] toLongArray()
+	{
+		return words.clone();
+	}
+}
@@ -28,9 +28,7 @@ import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
@@ -45,30 +43,30 @@ import javax.imageio.ImageIO;
 public enum BuildingType
 {
 	//Wood
-	WOODEN_WALL(new Color(150, 75, 0), new Dimension(1, 1), false, new Integer[] {0, 20, 0, 0}, 225),
-	WOODEN_GATEHOUSE(new Color(100, 50, 0), new Dimension(3, 3), true, new Integer[] {0, 200, 0, 0}, 3600),
-	WOODEN_TOWER(new Color(125, 58, 0), new Dimension(2, 2), false, new Integer[] {0, 200, 0, 0}, 10800),
+	WOODEN_WALL(new Color(150, 75, 0), new Dimension(1, 1), false, new int[] {0, 20, 0, 0}, 225),
+	WOODEN_GATEHOUSE(new Color(100, 50, 0), new Dimension(3, 3), true, new int[] {0, 200, 0, 0}, 3600),
+	WOODEN_TOWER(new Color(125, 58, 0), new Dimension(2, 2), false, new int[] {0, 200, 0, 0}, 10800),
 	
 	//Stone
-	STONE_WALL(new Color(230, 230, 230), new Dimension(1, 1), false, new Integer[] {100, 0, 0, 0}, 900),
-	STONE_GATEHOUSE(new Color(100, 100, 100), new Dimension(3, 3), true, new Integer[] {500, 0, 0, 0}, 7200),
-	LOOKOUT_TOWER(new Color(200, 200, 200), new Dimension(2, 2), true, new Integer[] {300, 0, 0, 0}, 14400),
-	SMALL_TOWER(new Color(200, 200, 200), new Dimension(3, 3), true, new Integer[] {800, 0, 0, 0}, 28800),
-	LARGE_TOWER(new Color(200, 200, 200), new Dimension(4, 4), true, new Integer[] {1500, 0, 0, 0}, 57600),
-	GREAT_TOWER(new Color(200, 200, 200), new Dimension(5, 5), true, new Integer[] {2500, 0, 0, 0}, 86400),
+	STONE_WALL(new Color(230, 230, 230), new Dimension(1, 1), false, new int[] {100, 0, 0, 0}, 900),
+	STONE_GATEHOUSE(new Color(100, 100, 100), new Dimension(3, 3), true, new int[] {500, 0, 0, 0}, 7200),
+	LOOKOUT_TOWER(new Color(200, 200, 200), new Dimension(2, 2), true, new int[] {300, 0, 0, 0}, 14400),
+	SMALL_TOWER(new Color(200, 200, 200), new Dimension(3, 3), true, new int[] {800, 0, 0, 0}, 28800),
+	LARGE_TOWER(new Color(200, 200, 200), new Dimension(4, 4), true, new int[] {1500, 0, 0, 0}, 57600),
+	GREAT_TOWER(new Color(200, 200, 200), new Dimension(5, 5), true, new int[] {2500, 0, 0, 0}, 86400),
 
 	//Misc
-	GUARD_HOUSE(new Color(255, 200, 180), new Dimension(3, 3), false, new Integer[] {0, 400, 0, 0}, 10800),
-	BALLISTA_TOWER(new Color(230, 200, 60), new Dimension(3, 3), false, new Integer[] {0, 10000, 0, 0}, 18000),
-	TURRET(new Color(0, 0, 80), new Dimension(2, 2), false, new Integer[] {2000, 0, 0, 0}, 14400),
-	SMELTER(new Color(200, 30, 30), new Dimension(4, 4), false, new Integer[] {0, 0, 400, 0}, 21600),
-	MOAT(new Color(0, 200, 255), new Dimension(1, 1), false, new Integer[] {0, 0, 0, 20}, 900),
+	GUARD_HOUSE(new Color(255, 200, 180), new Dimension(3, 3), false, new int[] {0, 400, 0, 0}, 10800),
+	BALLISTA_TOWER(new Color(230, 200, 60), new Dimension(3, 3), false, new int[] {0, 10000, 0, 0}, 18000),
+	TURRET(new Color(0, 0, 80), new Dimension(2, 2), false, new int[] {2000, 0, 0, 0}, 14400),
+	SMELTER(new Color(200, 30, 30), new Dimension(4, 4), false, new int[] {0, 0, 400, 0}, 21600),
+	MOAT(new Color(0, 200, 255), new Dimension(1, 1), false, new int[] {0, 0, 0, 20}, 900),
 
 	//Keep
-	KEEP(new Color(0, 0, 0), new Dimension(8, 8), false, new Integer[] {0, 0, 0, 0}, 0),
+	KEEP(new Color(0, 0, 0), new Dimension(8, 8), false, new int[] {0, 0, 0, 0}, 0),
 
-	KILLING_PIT(new Color(120, 100, 0), new Dimension(1, 1), false, new Integer[] {0, 0, 100, 0}, 3600),
-	BOMBARD(new Color(70, 70, 70), new Dimension(3, 3), false, new Integer[] {0, 0, 1000, 0}, 43200);
+	KILLING_PIT(new Color(120, 100, 0), new Dimension(1, 1), false, new int[] {0, 0, 100, 0}, 3600),
+	BOMBARD(new Color(70, 70, 70), new Dimension(3, 3), false, new int[] {0, 0, 1000, 0}, 43200);
 
 	private final Color colour;
 	private Dimension dimension;
@@ -76,8 +74,22 @@ public enum BuildingType
 	private BufferedImage image;
 	private BufferedImage validOverlay;
 	private BufferedImage invalidOverlay;
-	private Map<BuildingResource, Integer> buildingResources;
+	private final int[] resourceCosts;
 	private int buildTime;
+
+	/*
+	 * The cost of each building type in each resource, indexed by the
+	 * ordinals of BuildingType then BuildingResource. Not to be changed.
+	 */
+	static final int[][] COST_MATRIX = new int[values().length][];
+
+	static
+	{
+		for (BuildingType buildingType : values())
+		{
+			COST_MATRIX[buildingType.ordinal()] = buildingType.resourceCosts;
+		}
+	}
 	
 	/**
 	 * Constructor
@@ -87,7 +99,7 @@ public enum BuildingType
 	 * @param gapRequired true if this building cannot be placed next to
 	 *                    other buildings that also have this set to true
 	 */
-	BuildingType(Color colour, Dimension dimension, boolean gapRequired, Integer[] resourceCosts, int buildTime)
+	BuildingType(Color colour, Dimension dimension, boolean gapRequired, int[] resourceCosts, int buildTime)
 	{
 		this.colour = colour;
 		this.dimension = dimension;
@@ -109,11 +121,8 @@ public enum BuildingType
 			}
 		}
 
-		buildingResources = new HashMap<BuildingResource, Integer>();
-		buildingResources.put(BuildingResource.STONE, resourceCosts[0]);
-		buildingResources.put(BuildingResource.WOOD, resourceCosts[1]);
-		buildingResources.put(BuildingResource.IRON, resourceCosts[2]);
-		buildingResources.put(BuildingResource.GOLD, resourceCosts[3]);
+		//In the order of BuildingResource
+		this.resourceCosts = resourceCosts;
 
 		this.buildTime = buildTime;
 	}
@@ -187,7 +196,7 @@ public enum BuildingType
 	 */
 	public int getCost(BuildingResource buildingResource)
 	{
-		return buildingResources.get(buildingResource);
+		return COST_MATRIX[ordinal()][buildingResource.ordinal()];
 	}
 
 	/**
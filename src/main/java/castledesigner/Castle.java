@@ -20,19 +20,15 @@
  */
 package castledesigner;
 
-import java.awt.Color;
-import java.awt.Font;
 import java.awt.Point;
+import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import javax.swing.JLabel;
-import javax.swing.JPanel;
 
 /**
  *
@@ -48,26 +44,272 @@ public class Castle
 	 * to increment the export version id when new buildings are added.
 	 */
 	public static final int exportVersionId = 3;
+	//The compact export is a separate format, so older clients keep reading the plain export
+	public static final int compactExportVersionId = 4;
+	//The plain export with runs of single tiles, which older clients can't read
+	public static final int runLengthExportVersionId = 5;
+	//Enough bits for any coordinate, or the ordinal of any building type
+	private static final int COMPACT_COORDINATE_BITS = 6;
+	//The number of characters of coordinate pairs decoded at a time, which must be even
+	private static final int IMPORT_CHUNK_LENGTH = 64;
 
-	private Map<BuildingType, Integer> buildingQuantities = new HashMap<BuildingType, Integer>();
+	//Markers for runs of single tiles in the run length export, see writeSingleTileRuns
+	private static final char RUN_ACROSS = 'R';
+	private static final char RUN_DOWN = 'Q';
+	private static final int MINIMUM_RUN_LENGTH = 3;
+	//Enough for several thousand single building changes
+	public static final int DEFAULT_UNDO_LIMIT = 1 << 20;
+
+	private final int[] numberOfBuildings = new int[BuildingType.values().length];
 	private final EnumSet<BuildingType> limitedBuildings = EnumSet.of(BuildingType.MOAT,
 									BuildingType.BALLISTA_TOWER,
 									BuildingType.TURRET,
 									BuildingType.GUARD_HOUSE,
 									BuildingType.BOMBARD);
-	private Map<BuildingResource, Integer> buildingResources = new HashMap<BuildingResource, Integer>();
+	private final int[] totalResources = new int[BuildingResource.values().length];
 	private int totalBuildingTime = 0;
+	private final int[] tileCounts = new int[BuildingType.values().length];
 	private final List<String> designErrors = new ArrayList<String>();
-	private TileBuilding[][] gridData = new TileBuilding[CASTLE_BOUNDRY_LENGTH][CASTLE_BOUNDRY_LENGTH];
-	private static int lastIdUsed = 0;
+	private boolean designErrorsStale = true;
+	private final Set<DesignErrorListener> designErrorListeners = new HashSet<DesignErrorListener>();
+	private final Set<DesignListener> designListeners = new HashSet<DesignListener>();
+	private int batchDepth = 0;
+	private boolean designChanged = false;
+	/*
+	 * Each tile is packed into an int (see TileBuilding.pack) rather than
+	 * held as its own object, indexed by x * CASTLE_BOUNDRY_LENGTH + y.
+	 */
+	private final int[] gridData = new int[CASTLE_BOUNDRY_LENGTH * CASTLE_BOUNDRY_LENGTH];
+	/*
+	 * The tiles of each building are chained into a ring: tileLinks holds the
+	 * index of the next tile with the same building id, and buildingAnchors
+	 * maps each building id to one of its tiles.
+	 */
+	private final int[] tileLinks = new int[CASTLE_BOUNDRY_LENGTH * CASTLE_BOUNDRY_LENGTH];
+	private final IntIntMap buildingAnchors;
+	private final Bitboard[] occupancy = new Bitboard[OccupancyLayer.values().length];
+	private static final boolean[][] occupancyLayers = createOccupancyLayers();
+	//Rebuilt from the bitboards when next asked for, rather than on every change
+	private final SummedAreaTable[] summedAreaTables = new SummedAreaTable[OccupancyLayer.values().length];
+	private final boolean[] summedAreaTablesStale = new boolean[OccupancyLayer.values().length];
+	//Ids are only unique within a castle, so castles can be used on different threads
+	private int lastIdUsed = 0;
 	private int worldAge = 1;
+	//Counts changes to the design so that sandboxes can tell when they're out of date
+	private int modCount = 0;
+	//Zobrist hash of every (tile, building type) pair, see getFingerprint()
+	private long tileHash = 0;
+	/*
+	 * The last export strings, plain and run length encoded, kept until the
+	 * design changes. Each is held with the modCount it was made at in one
+	 * immutable object, so that readers sharing the castle under a read
+	 * lock never see a string paired with the wrong modCount.
+	 */
+	private final CachedExport[] cachedExports = new CachedExport[2];
+	//The last snapshot taken, and a bit for each column changed since
+	private CastleSnapshot snapshot = null;
+	private long dirtyColumns = -1L;
+	private UndoJournal undoJournal = new UndoJournal(DEFAULT_UNDO_LIMIT);
+	//Changes made while this is non-zero are not recorded for undo
+	private int journalSuspended = 0;
+	private final UndoJournal.Replay journalReplay = new UndoJournal.Replay()
+	{
+		public void restore(int index, int value)
+		{
+			if (index == UndoJournal.WORLD_AGE)
+			{
+				worldAge = value;
+				designErrorsStale = true;
+				designChanged = true;
+				modCount++;
+			}
+			else setTile(index, value);
+		}
+	};
 
 	public Castle()
 	{
+		buildingAnchors = new IntIntMap();
+		for (int i=0; i<occupancy.length; i++)
+		{
+			occupancy[i] = new Bitboard();
+		}
+		//Each table is built the first time it's asked for
+		Arrays.fill(summedAreaTablesStale, true);
+
 		//Call reset here to set the Keep in the centre
 		resetGridData();
 	}
 
+	/**
+	 * Copy constructor. The design is copied array by array; listeners and
+	 * undo history are not copied, but the undo limit is.
+	 */
+	private Castle(Castle castle)
+	{
+		System.arraycopy(castle.numberOfBuildings, 0, numberOfBuildings, 0, numberOfBuildings.length);
+		System.arraycopy(castle.totalResources, 0, totalResources, 0, totalResources.length);
+		totalBuildingTime = castle.totalBuildingTime;
+		System.arraycopy(castle.tileCounts, 0, tileCounts, 0, tileCounts.length);
+		designErrors.addAll(castle.designErrors);
+		designErrorsStale = castle.designErrorsStale;
+		System.arraycopy(castle.gridData, 0, gridData, 0, gridData.length);
+		System.arraycopy(castle.tileLinks, 0, tileLinks, 0, tileLinks.length);
+		buildingAnchors = new IntIntMap(castle.buildingAnchors);
+
+		for (int i=0; i<occupancy.length; i++)
+		{
+			occupancy[i] = new Bitboard(castle.occupancy[i]);
+			//Summed-area tables are replaced rather than changed, so can be shared
+			summedAreaTables[i] = castle.summedAreaTables[i];
+			summedAreaTablesStale[i] = castle.summedAreaTablesStale[i];
+		}
+		lastIdUsed = castle.lastIdUsed;
+		worldAge = castle.worldAge;
+		tileHash = castle.tileHash;
+		snapshot = castle.snapshot;
+		dirtyColumns = castle.dirtyColumns;
+		undoJournal = new UndoJournal(castle.undoJournal.getLimit());
+	}
+
+	/**
+	 * Creates a castle from a snapshot.
+	 */
+	Castle(CastleSnapshot snapshot)
+	{
+		this();
+
+		beginBatch();
+		journalSuspended++;
+		try
+		{
+			clearGridData();
+			for (int x=0; x<CASTLE_BOUNDRY_LENGTH; x++)
+			{
+				int[] column = snapshot.getColumn(x);
+				for (int y=0; y<CASTLE_BOUNDRY_LENGTH; y++)
+				{
+					if (column[y] != TileBuilding.EMPTY) setTile(tileIndex(x, y), column[y]);
+				}
+			}
+			lastIdUsed = snapshot.getLastIdUsed();
+			setWorldAge(snapshot.getWorldAge());
+		}
+		finally
+		{
+			journalSuspended--;
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Returns an independent copy of this castle's design. Listeners are
+	 * not copied.
+	 *
+	 * @return a copy of this castle
+	 */
+	public Castle copy()
+	{
+		return new Castle(this);
+	}
+
+	/**
+	 * Returns a 64-bit fingerprint of the design: which type of building is
+	 * on each tile, and the world age. Castles with the same design always
+	 * have the same fingerprint, in any JVM, so it may be stored and used
+	 * as a cache key. Different designs almost always have different
+	 * fingerprints; use hasSameDesign to be sure.
+	 *
+	 * The fingerprint is kept up to date as the design changes, so this
+	 * costs nothing.
+	 *
+	 * @return the fingerprint of the design
+	 */
+	public long getFingerprint()
+	{
+		return tileHash ^ getWorldAgeKey(worldAge);
+	}
+
+	/**
+	 * Returns true if the two castles have the same design, i.e. they
+	 * would export the same string. The fingerprints are compared first,
+	 * so castles with different designs are told apart almost instantly.
+	 *
+	 * @param castle the castle to compare with
+	 * @return true if both castles have the same design
+	 */
+	public boolean hasSameDesign(Castle castle)
+	{
+		if (castle == this) return true;
+		if (castle.getFingerprint() != getFingerprint()) return false;
+
+		return castle.getGridDataExport().equals(getGridDataExport());
+	}
+
+	/*
+	 * Rather than a table of random numbers, the Zobrist keys are made by
+	 * scrambling the tile index and type with the SplitMix64 finaliser.
+	 * This gives the same keys on every run without needing a table.
+	 */
+	static long getTileKey(int index, int ordinal)
+	{
+		return mix(((long)index << 8) | ordinal);
+	}
+
+	private static long getWorldAgeKey(int worldAge)
+	{
+		return mix(0x5EED000000000000L + worldAge);
+	}
+
+	private static long mix(long z)
+	{
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns an unchanging copy of the design. Columns of the grid that
+	 * haven't changed since the last snapshot are shared with it, and if
+	 * nothing has changed the last snapshot itself is returned.
+	 *
+	 * @return a snapshot of the design
+	 */
+	public CastleSnapshot snapshot()
+	{
+		if (snapshot != null && dirtyColumns == 0 && snapshot.getWorldAge() == worldAge) return snapshot;
+
+		int[][] columns = new int[CASTLE_BOUNDRY_LENGTH][];
+		for (int x=0; x<CASTLE_BOUNDRY_LENGTH; x++)
+		{
+			if (snapshot == null || (dirtyColumns & (1L << x)) != 0)
+			{
+				columns[x] = Arrays.copyOfRange(gridData, x * CASTLE_BOUNDRY_LENGTH, (x + 1) * CASTLE_BOUNDRY_LENGTH);
+			}
+			else columns[x] = snapshot.getColumn(x);
+		}
+
+		//Listeners hear about new errors when the change is published, not here
+		List<String> errors = designErrorsStale ? validateBuildingLimits(tileCounts) : designErrors;
+
+		snapshot = new CastleSnapshot(columns, worldAge, getFingerprint(), lastIdUsed, tileCounts,
+			totalResources.clone(), totalBuildingTime, errors);
+		dirtyColumns = 0;
+		return snapshot;
+	}
+
+	/**
+	 * Returns a sandbox for trying out changes to this castle without
+	 * changing it or copying it.
+	 *
+	 * @return a new sandbox on top of this castle
+	 */
+	public CastleSandbox sandbox()
+	{
+		return new CastleSandbox(this);
+	}
+
 	public int getWorldAge()
 	{
 		return worldAge;
@@ -77,53 +319,235 @@ public class Castle
 	{
 		if (worldAge < 1) throw new RuntimeException("Invalid world age: " + worldAge);
 
+		if (worldAge != this.worldAge)
+		{
+			if (journalSuspended == 0) undoJournal.record(UndoJournal.WORLD_AGE, this.worldAge, worldAge);
+			designErrorsStale = true;
+			designChanged = true;
+			modCount++;
+		}
 		this.worldAge = worldAge;
-		updateDesignStats();
+		mutated();
 	}
 	
+	/**
+	 * Returns the building on the given tile, or null if the tile is empty.
+	 * The TileBuilding is a view of the tile and is created on demand, so
+	 * prefer getBuildingType/getBuildingId in tight loops.
+	 */
 	public TileBuilding getGridData(int x, int y)
 	{
-		return gridData[x][y];
+		return TileBuilding.unpack(gridData[tileIndex(x, y)]);
+	}
+
+	/**
+	 * Returns the type of building on the given tile, or null if the tile
+	 * is empty.
+	 */
+	public BuildingType getBuildingType(int x, int y)
+	{
+		return TileBuilding.unpackType(gridData[tileIndex(x, y)]);
+	}
+
+	/**
+	 * Returns the id of the building on the given tile. Empty tiles have
+	 * an id of 0.
+	 */
+	public int getBuildingId(int x, int y)
+	{
+		return TileBuilding.unpackId(gridData[tileIndex(x, y)]);
+	}
+
+	/**
+	 * Returns the live occupancy bitboard of the given layer. The bitboard
+	 * changes as the design changes.
+	 *
+	 * @param occupancyLayer the category of tiles wanted
+	 * @return the bitboard for that category
+	 */
+	public Bitboard getOccupancy(OccupancyLayer occupancyLayer)
+	{
+		return occupancy[occupancyLayer.ordinal()];
+	}
+
+	/**
+	 * Returns a summed-area table of the given layer, for counting the
+	 * occupied tiles of large or many rectangles in constant time. The
+	 * table is a snapshot and must be asked for again after the design
+	 * changes.
+	 *
+	 * @param occupancyLayer the category of tiles wanted
+	 * @return an up to date summed-area table for that category
+	 */
+	public SummedAreaTable getSummedAreaTable(OccupancyLayer occupancyLayer)
+	{
+		int layer = occupancyLayer.ordinal();
+
+		if (summedAreaTablesStale[layer])
+		{
+			summedAreaTables[layer] = new SummedAreaTable(occupancy[layer]);
+			summedAreaTablesStale[layer] = false;
+		}
+		return summedAreaTables[layer];
+	}
+
+	/**
+	 * Returns the number of tiles of the given layer in the rectangle.
+	 *
+	 * @param occupancyLayer the category of tiles to count
+	 * @param x the left-most column of the rectangle
+	 * @param y the top-most row of the rectangle
+	 * @param width the width of the rectangle (in tiles)
+	 * @param height the height of the rectangle (in tiles)
+	 * @return the number of tiles in the rectangle
+	 */
+	public int countTiles(OccupancyLayer occupancyLayer, int x, int y, int width, int height)
+	{
+		return getSummedAreaTable(occupancyLayer).count(x, y, width, height);
+	}
+
+	/**
+	 * Returns true if the building could be placed with its top left
+	 * corner on the given tile, i.e. it fits in the grid, is only built
+	 * over empty land or walls, and keeps any gap it needs.
+	 *
+	 * @param buildingType the building to be placed
+	 * @param x the left-most column of the building
+	 * @param y the top-most row of the building
+	 * @return true if the building can be placed there
+	 */
+	public boolean isPlaceable(BuildingType buildingType, int x, int y)
+	{
+		int width = buildingType.getDimension().width;
+		int height = buildingType.getDimension().height;
+
+		if (x < 0 || y < 0 || x + width > CASTLE_BOUNDRY_LENGTH || y + height > CASTLE_BOUNDRY_LENGTH) return false;
+
+		if (getOccupancy(OccupancyLayer.BLOCKING).intersects(x, y, width, height)) return false;
+
+		return !buildingType.isGapRequired() ||
+			!getOccupancy(OccupancyLayer.GAP_REQUIRED).intersects(x - 1, y - 1, width + 2, height + 2);
+	}
+
+	int getTile(int index)
+	{
+		return gridData[index];
+	}
+
+	/**
+	 * Returns the index of the tile after the given one on its building's
+	 * ring.
+	 */
+	int getNextTile(int index)
+	{
+		return tileLinks[index];
+	}
+
+	/**
+	 * Returns the index of one of the building's tiles, or -1 if there is
+	 * no such building.
+	 */
+	int getBuildingAnchor(int id)
+	{
+		return buildingAnchors.get(id);
+	}
+
+	int getTileCount(BuildingType buildingType)
+	{
+		return tileCounts[buildingType.ordinal()];
+	}
+
+	int getLastIdUsed()
+	{
+		return lastIdUsed;
+	}
+
+	int getModCount()
+	{
+		return modCount;
+	}
+
+	static int tileIndex(int x, int y)
+	{
+		if (x < 0 || x >= CASTLE_BOUNDRY_LENGTH || y < 0 || y >= CASTLE_BOUNDRY_LENGTH)
+		{
+			throw new ArrayIndexOutOfBoundsException("Invalid coordinates: " + x + ", " + y);
+		}
+		return x * CASTLE_BOUNDRY_LENGTH + y;
 	}
 
 	public void removeBuilding(TileBuilding building)
 	{
 		if (building == null) throw new IllegalArgumentException();
 		
-		int id = building.getBuildingId();
+		int anchor = buildingAnchors.remove(building.getBuildingId());
 
-		for (int i=0; i<CASTLE_BOUNDRY_LENGTH; i++)
+		if (anchor != IntIntMap.NO_VALUE)
 		{
-			for (int j=0; j<CASTLE_BOUNDRY_LENGTH; j++)
+			//The whole ring goes, so there's no need to unlink each tile
+			int index = anchor;
+			do
 			{
-				if (gridData[i][j] != null &&
-					gridData[i][j].getBuildingId() == id)
-				{
-					gridData[i][j] = null;
-				}
+				int next = tileLinks[index];
+				writeTile(index, TileBuilding.EMPTY);
+				index = next;
 			}
+			while (index != anchor);
 		}
-		updateDesignStats();
+		mutated();
 	}
 
-	public void resetGridData()
+	/**
+	 * Returns the coordinates of every tile belonging to the building on
+	 * the given tile. Only the building's own tiles are visited.
+	 *
+	 * @return the building's tiles, or an empty set if the tile is empty
+	 */
+	public Set<Point> getBuildingCoords(int x, int y)
 	{
-		for (int i=0; i<gridData.length; i++)
+		Set<Point> buildingCoords = new HashSet<Point>();
+
+		int anchor = tileIndex(x, y);
+		if (gridData[anchor] != TileBuilding.EMPTY)
 		{
-			for (int j=0; j<gridData[i].length; j++)
+			int index = anchor;
+			do
 			{
-				gridData[i][j] = null;
+				buildingCoords.add(new Point(index / CASTLE_BOUNDRY_LENGTH, index % CASTLE_BOUNDRY_LENGTH));
+				index = tileLinks[index];
 			}
+			while (index != anchor);
 		}
-			
-		for (int i=22; i<22 + BuildingType.KEEP.getDimension().getWidth(); i++)
+		return buildingCoords;
+	}
+
+	/**
+	 * Resets the design to just the Keep. The undo history is cleared.
+	 */
+	public void resetGridData()
+	{
+		beginBatch();
+		undoJournal.clear();
+		journalSuspended++;
+		try
 		{
-			for (int j=22; j<22 + BuildingType.KEEP.getDimension().getHeight(); j++)
+			clearGridData();
+
+			int keep = TileBuilding.pack(BuildingType.KEEP, 0);
+			for (int i=22; i<22 + BuildingType.KEEP.getDimension().getWidth(); i++)
 			{
-				gridData[i][j] = new TileBuilding(BuildingType.KEEP, 0);
+				for (int j=22; j<22 + BuildingType.KEEP.getDimension().getHeight(); j++)
+				{
+					setTile(tileIndex(i, j), keep);
+				}
 			}
+			setWorldAge(1);
+		}
+		finally
+		{
+			journalSuspended--;
+			commitBatch();
 		}
-		setWorldAge(1); //This calls updateDesignStats()
 	}
 
 	/**
@@ -134,195 +558,982 @@ public class Castle
 	 */
 	public String getGridDataExport()
 	{
-		StringBuffer woodenWalls = new StringBuffer();
-		StringBuffer stoneWalls = new StringBuffer();
-		StringBuffer moats = new StringBuffer();
-		StringBuffer killingPits = new StringBuffer();
-		StringBuffer structures = new StringBuffer();
+		return getGridDataExport(false);
+	}
 
-		Set<Integer> ids = new HashSet<Integer>();
+	/**
+	 * Returns the export string, optionally with straight runs of walls,
+	 * moat and killing pits written as runs rather than tile by tile. This
+	 * is much shorter for most designs, but can't be read by clients
+	 * older than export version 5.
+	 *
+	 * @param runLengthEncoded true to write runs
+	 * @return the export string
+	 */
+	public String getGridDataExport(boolean runLengthEncoded)
+	{
+		int cacheIndex = runLengthEncoded ? 1 : 0;
+		CachedExport cachedExport = cachedExports[cacheIndex];
+		if (cachedExport != null && cachedExport.modCount == modCount) return cachedExport.exportString;
 
-		for (int i=0; i<gridData.length; i++)
+		StringBuilder exportString = new StringBuilder(getExportLength());
+		try
 		{
-			for (int j=0; j<gridData[i].length; j++)
-			{
-				TileBuilding building = gridData[i][j];
+			writeExport(exportString, runLengthEncoded);
+		}
+		catch (IOException e)
+		{
+			//StringBuilder doesn't throw IOExceptions
+			throw new RuntimeException(e);
+		}
+		cachedExport = new CachedExport(modCount, getFingerprint(), exportString.toString());
+		cachedExports[cacheIndex] = cachedExport;
+		return cachedExport.exportString;
+	}
 
-				if (building != null)
-				{
-					if (building.getBuildingType() == BuildingType.WOODEN_WALL)
-					{
-						woodenWalls.append(Converter.intToAlphaNumeric(i));
-						woodenWalls.append(Converter.intToAlphaNumeric(j));
-					}
-					else if (building.getBuildingType() == BuildingType.STONE_WALL)
-					{
-						stoneWalls.append(Converter.intToAlphaNumeric(i));
-						stoneWalls.append(Converter.intToAlphaNumeric(j));
-					}
-					else if (building.getBuildingType() == BuildingType.MOAT)
-					{
-						moats.append(Converter.intToAlphaNumeric(i));
-						moats.append(Converter.intToAlphaNumeric(j));
-					}
-					else if (building.getBuildingType() == BuildingType.KILLING_PIT)
-					{
-						killingPits.append(Converter.intToAlphaNumeric(i));
-						killingPits.append(Converter.intToAlphaNumeric(j));
-					}
-					else
-					{
-						if (!ids.contains(building.getBuildingId()))
-						{
-							ids.add(building.getBuildingId());
-							structures.append(Converter.intToAlphaNumeric(building.getBuildingType().ordinal()));
-							structures.append(Converter.intToAlphaNumeric(i));
-							structures.append(Converter.intToAlphaNumeric(j));
-						}
-					}
-				}
-			}
+	/**
+	 * An export string and the design it was made from.
+	 */
+	private static final class CachedExport
+	{
+		private final int modCount;
+		private final long fingerprint;
+		private final String exportString;
+
+		CachedExport(int modCount, long fingerprint, String exportString)
+		{
+			this.modCount = modCount;
+			this.fingerprint = fingerprint;
+			this.exportString = exportString;
 		}
+	}
 
-		StringBuilder exportStringBuffer = new StringBuilder();
-		exportStringBuffer.append(exportVersionId);
-		
-		return exportStringBuffer.append(woodenWalls)
-					.append(Converter.seperator)
-					.append(stoneWalls)
-					.append(Converter.seperator)
-					.append(structures)
-					.append(Converter.seperator)
-					.append(moats)
-					.append(Converter.seperator)
-					.append(killingPits)
-					.append(Converter.seperator)
-					.append(getWorldAge())
-					.toString();
+	/**
+	 * Writes the export string straight to the given Appendable, e.g. a
+	 * Writer. Each section is written by its own scan of the grid, so
+	 * nothing is buffered.
+	 *
+	 * @param out where to write the export string
+	 * @throws IOException if out throws one
+	 */
+	public void writeExport(Appendable out) throws IOException
+	{
+		writeExport(out, false);
 	}
 
-	private int getNewId()
+	/**
+	 * Writes the export string straight to the given Appendable.
+	 *
+	 * @param out where to write the export string
+	 * @param runLengthEncoded true to write runs, see getGridDataExport(boolean)
+	 * @throws IOException if out throws one
+	 */
+	public void writeExport(Appendable out, boolean runLengthEncoded) throws IOException
 	{
-		return ++lastIdUsed;
+		out.append(Integer.toString(runLengthEncoded ? runLengthExportVersionId : exportVersionId));
+		writeSingleTiles(out, BuildingType.WOODEN_WALL, runLengthEncoded);
+		out.append(Converter.seperator);
+		writeSingleTiles(out, BuildingType.STONE_WALL, runLengthEncoded);
+		out.append(Converter.seperator);
+		writeStructures(out);
+		out.append(Converter.seperator);
+		writeSingleTiles(out, BuildingType.MOAT, runLengthEncoded);
+		out.append(Converter.seperator);
+		writeSingleTiles(out, BuildingType.KILLING_PIT, runLengthEncoded);
+		out.append(Converter.seperator);
+		out.append(Integer.toString(worldAge));
 	}
-	
-	public void importData(String text) throws UnsupportedVersionException
+
+	/**
+	 * Returns the design in the compact export format: the version id
+	 * followed by bit-packed binary data written in base 62, so it's still
+	 * safe for forums. Coordinates take 6 bits each, counts are varints,
+	 * and crowded single tile sections are stored as a bitmask per row.
+	 * importData reads both formats.
+	 *
+	 * @return the compact export string
+	 */
+	public String getCompactExport()
 	{
-		int version = Character.getNumericValue(text.charAt(0));
+		BitWriter bits = new BitWriter();
+		writeCompactSingleTiles(bits, BuildingType.WOODEN_WALL);
+		writeCompactSingleTiles(bits, BuildingType.STONE_WALL);
+		writeCompactStructures(bits);
+		writeCompactSingleTiles(bits, BuildingType.MOAT);
+		writeCompactSingleTiles(bits, BuildingType.KILLING_PIT);
+		bits.writeVarint(worldAge);
 
-		resetGridData();
+		StringBuilder exportString = new StringBuilder(1 + (bits.getLength() + 4) / 5 * 7);
+		exportString.append(compactExportVersionId);
+		Base62.encode(bits.getBytes(), bits.getLength(), exportString);
+		return exportString.toString();
+	}
 
-		String data = text.substring(1);
-	
-		if (data == null) return;
-		String[] dataStrings = data.split(String.valueOf(Converter.seperator));
+	/**
+	 * Writes the tiles of the given type either as a list of coordinates
+	 * or as a bitmask of rows followed by a bitmask of each row, whichever
+	 * is smaller. A single bit says which.
+	 */
+	private void writeCompactSingleTiles(BitWriter bits, BuildingType buildingType)
+	{
+		int numberOfTiles = tileCounts[buildingType.ordinal()];
 
-		if (dataStrings.length > 0 && dataStrings[0] != null) importSingleTiles(BuildingType.WOODEN_WALL, dataStrings[0]);
-		if (dataStrings.length > 1 && dataStrings[1] != null) importSingleTiles(BuildingType.STONE_WALL, dataStrings[1]);
-		
-		if (dataStrings.length > 2 && dataStrings[2] != null)
+		long[] rows = new long[CASTLE_BOUNDRY_LENGTH];
+		long usedRows = 0;
+		for (int i=0; i<CASTLE_BOUNDRY_LENGTH; i++)
 		{
-			int i=0;
-			while (i < dataStrings[2].length())
+			for (int j=0; j<CASTLE_BOUNDRY_LENGTH; j++)
 			{
-				int ordinal = Converter.alphaNumericToInt(dataStrings[2].charAt(i));
-				int x = Converter.alphaNumericToInt(dataStrings[2].charAt(i+1));
-				int y = Converter.alphaNumericToInt(dataStrings[2].charAt(i+2));
-				
-				try
+				if (TileBuilding.unpackOrdinal(gridData[i * CASTLE_BOUNDRY_LENGTH + j]) == buildingType.ordinal())
 				{
-					BuildingType buildingType = BuildingType.values()[ordinal];
-					int id = getNewId();
+					rows[i] |= 1L << j;
+				}
+			}
+			if (rows[i] != 0) usedRows |= 1L << i;
+		}
 
-					for (int k=x; k<x+buildingType.getDimension().getWidth(); k++)
+		int listLength = BitWriter.getVarintLength(numberOfTiles) + numberOfTiles * 2 * COMPACT_COORDINATE_BITS;
+		int bitmaskLength = (Long.bitCount(usedRows) + 1) * CASTLE_BOUNDRY_LENGTH;
+
+		if (listLength <= bitmaskLength)
+		{
+			bits.write(0, 1);
+			bits.writeVarint(numberOfTiles);
+			for (int i=0; i<CASTLE_BOUNDRY_LENGTH; i++)
+			{
+				for (int j=0; j<CASTLE_BOUNDRY_LENGTH; j++)
+				{
+					if ((rows[i] & (1L << j)) != 0)
 					{
-						for (int l=y; l<y+buildingType.getDimension().getHeight(); l++)
-						{
-							gridData[k][l] = new TileBuilding(buildingType, id);
-						}
+						bits.write(i, COMPACT_COORDINATE_BITS);
+						bits.write(j, COMPACT_COORDINATE_BITS);
 					}
 				}
-				catch (ArrayIndexOutOfBoundsException e)
-				{
-					//The client is trying to load a building that it doesn't yet know about
-					//Best thing to do here is to gracefully ignore it!
-				}
-
-				i += 3;
 			}
 		}
-		if (dataStrings.length > 3 && dataStrings[3] != null) importSingleTiles(BuildingType.MOAT, dataStrings[3]);
-		if (dataStrings.length > 4 && dataStrings[4] != null) importSingleTiles(BuildingType.KILLING_PIT, dataStrings[4]);
-		if (version >= 3 && dataStrings.length > 5 && dataStrings[5] != null) setWorldAge(Integer.parseInt(dataStrings[5]));
-		else updateDesignStats(); //setWorldAge() calls updateDesignStats()
-
-		if (version > 3) throw new UnsupportedVersionException(version);
-	}
-	
-	private void importSingleTiles(BuildingType buildingType, String dataString)
-	{
-		int i=0;
-		while (i < dataString.length())
+		else
 		{
-			int x = Converter.alphaNumericToInt(dataString.charAt(i));
-			int y = Converter.alphaNumericToInt(dataString.charAt(i+1));
-			
-			gridData[x][y] = new TileBuilding(buildingType, getNewId());
-
-			i += 2;
+			bits.write(1, 1);
+			bits.write(usedRows, CASTLE_BOUNDRY_LENGTH);
+			for (int i=0; i<CASTLE_BOUNDRY_LENGTH; i++)
+			{
+				if (rows[i] != 0) bits.write(rows[i], CASTLE_BOUNDRY_LENGTH);
+			}
 		}
 	}
-	
-	public void addBuilding(Set<Point> buildingCoords, BuildingType buildingType)
+
+	/**
+	 * Writes the number of other buildings, then the type and coordinates
+	 * of the first tile of each.
+	 */
+	private void writeCompactStructures(BitWriter bits)
 	{
-		int id = getNewId();
+		long[] written = new long[(lastIdUsed >>> 6) + 1];
+		int[] structures = new int[gridData.length];
+		int numberOfStructures = 0;
 
-		for (Point p : buildingCoords)
+		for (int index=0; index<gridData.length; index++)
 		{
-			gridData[p.x][p.y] = new TileBuilding(buildingType, id);
+			int tile = gridData[index];
+			if (tile == TileBuilding.EMPTY || isSingleTileType(TileBuilding.unpackOrdinal(tile))) continue;
+
+			int id = TileBuilding.unpackId(tile);
+			if ((written[id >>> 6] & (1L << id)) == 0)
+			{
+				written[id >>> 6] |= 1L << id;
+				structures[numberOfStructures++] = index;
+			}
 		}
-		updateDesignStats();
-	}
 
-	public List<String> getDesignErrors()
-	{
-		return designErrors;
+		bits.writeVarint(numberOfStructures);
+		for (int i=0; i<numberOfStructures; i++)
+		{
+			int index = structures[i];
+			bits.write(TileBuilding.unpackOrdinal(gridData[index]), COMPACT_COORDINATE_BITS);
+			bits.write(index / CASTLE_BOUNDRY_LENGTH, COMPACT_COORDINATE_BITS);
+			bits.write(index % CASTLE_BOUNDRY_LENGTH, COMPACT_COORDINATE_BITS);
+		}
 	}
 
-	private void updateDesignStats()
+	/**
+	 * Writes the coordinates of every tile of the given type, stopping as
+	 * soon as they have all been found.
+	 */
+	private void writeSingleTiles(Appendable out, BuildingType buildingType, boolean runLengthEncoded) throws IOException
 	{
-		designErrors.clear();
-		totalBuildingTime = 0;
-
-		for (BuildingResource buildingResource : BuildingResource.values())
+		if (runLengthEncoded)
 		{
-			buildingResources.put(buildingResource, 0);
+			writeSingleTileRuns(out, buildingType);
+			return;
 		}
 
-		int[] buildingCounts = new int[BuildingType.values().length];
+		int remaining = tileCounts[buildingType.ordinal()];
+		int[] coordinates = new int[2 * remaining];
+		int count = 0;
 
-		for (int i=0; i<gridData.length; i++)
+		for (int i=0; i<CASTLE_BOUNDRY_LENGTH && remaining > 0; i++)
 		{
-			for (int j=0; j<gridData[i].length; j++)
+			for (int j=0; j<CASTLE_BOUNDRY_LENGTH; j++)
 			{
-				TileBuilding building = gridData[i][j];
-				if (building != null) buildingCounts[building.getBuildingType().ordinal()]++;
+				if (TileBuilding.unpackOrdinal(gridData[i * CASTLE_BOUNDRY_LENGTH + j]) == buildingType.ordinal())
+				{
+					coordinates[count++] = i;
+					coordinates[count++] = j;
+					remaining--;
+				}
 			}
 		}
 
+		//Then all the coordinates are encoded in one go
+		char[] alphaNumerics = new char[count];
+		Converter.intsToAlphaNumerics(coordinates, 0, count, alphaNumerics, 0);
+		out.append(CharBuffer.wrap(alphaNumerics));
+	}
+
+	/**
+	 * Writes the tiles of the given type, taking the longer of the runs
+	 * across and down from each tile not yet written. Runs of at least
+	 * MINIMUM_RUN_LENGTH tiles are written as a marker (RUN_ACROSS or
+	 * RUN_DOWN), the coordinates of the first tile, and the length; any
+	 * other tile is written as a pair of coordinates. The markers can't be
+	 * mistaken for coordinates as they are past the edge of the grid.
+	 */
+	private void writeSingleTileRuns(Appendable out, BuildingType buildingType) throws IOException
+	{
+		int ordinal = buildingType.ordinal();
+		int remaining = tileCounts[ordinal];
+		long[] written = new long[(gridData.length + 63) >>> 6];
+
+		for (int i=0; i<CASTLE_BOUNDRY_LENGTH && remaining > 0; i++)
+		{
+			for (int j=0; j<CASTLE_BOUNDRY_LENGTH; j++)
+			{
+				int index = i * CASTLE_BOUNDRY_LENGTH + j;
+				if (TileBuilding.unpackOrdinal(gridData[index]) != ordinal || (written[index >>> 6] & (1L << index)) != 0) continue;
+
+				int across = getRunLength(ordinal, written, i, j, CASTLE_BOUNDRY_LENGTH);
+				int down = getRunLength(ordinal, written, i, j, 1);
+				int length = Math.max(across, down);
+				int step = across >= down ? CASTLE_BOUNDRY_LENGTH : 1;
+
+				if (length >= MINIMUM_RUN_LENGTH)
+				{
+					out.append(step == 1 ? RUN_DOWN : RUN_ACROSS);
+					out.append(Converter.intToAlphaNumeric(i));
+					out.append(Converter.intToAlphaNumeric(j));
+					out.append(Converter.intToAlphaNumeric(length));
+				}
+				else
+				{
+					length = 1;
+					out.append(Converter.intToAlphaNumeric(i));
+					out.append(Converter.intToAlphaNumeric(j));
+				}
+
+				for (int k=0; k<length; k++)
+				{
+					int runIndex = index + k * step;
+					written[runIndex >>> 6] |= 1L << runIndex;
+				}
+				remaining -= length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of tiles of the given type not yet written,
+	 * starting at (x, y) and moving by step, without leaving the grid.
+	 */
+	private int getRunLength(int ordinal, long[] written, int x, int y, int step)
+	{
+		int limit = step == 1 ? CASTLE_BOUNDRY_LENGTH - y : CASTLE_BOUNDRY_LENGTH - x;
+		int index = x * CASTLE_BOUNDRY_LENGTH + y;
+
+		int length = 0;
+		while (length < limit
+			&& TileBuilding.unpackOrdinal(gridData[index]) == ordinal
+			&& (written[index >>> 6] & (1L << index)) == 0)
+		{
+			length++;
+			index += step;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the type and coordinates of the first tile found of every
+	 * other building. Ids already written are remembered in a bitset.
+	 */
+	private void writeStructures(Appendable out) throws IOException
+	{
+		long[] written = new long[(lastIdUsed >>> 6) + 1];
+
+		for (int i=0; i<CASTLE_BOUNDRY_LENGTH; i++)
+		{
+			for (int j=0; j<CASTLE_BOUNDRY_LENGTH; j++)
+			{
+				int tile = gridData[i * CASTLE_BOUNDRY_LENGTH + j];
+				if (tile == TileBuilding.EMPTY || isSingleTileType(TileBuilding.unpackOrdinal(tile))) continue;
+
+				int id = TileBuilding.unpackId(tile);
+				if ((written[id >>> 6] & (1L << id)) == 0)
+				{
+					written[id >>> 6] |= 1L << id;
+					out.append(Converter.intToAlphaNumeric(TileBuilding.unpackOrdinal(tile)));
+					out.append(Converter.intToAlphaNumeric(i));
+					out.append(Converter.intToAlphaNumeric(j));
+				}
+			}
+		}
+	}
+
+	private static boolean isSingleTileType(int ordinal)
+	{
+		return ordinal == BuildingType.WOODEN_WALL.ordinal()
+			|| ordinal == BuildingType.STONE_WALL.ordinal()
+			|| ordinal == BuildingType.MOAT.ordinal()
+			|| ordinal == BuildingType.KILLING_PIT.ordinal();
+	}
+
+	/**
+	 * Returns roughly how long the export string will be.
+	 */
+	private int getExportLength()
+	{
+		int length = 16;
 		for (BuildingType buildingType : BuildingType.values())
 		{
-			int numberOfBuildings = calculateNumberOfBuildings(buildingType, buildingCounts[buildingType.ordinal()]);
-			buildingQuantities.put(buildingType, numberOfBuildings);
+			if (isSingleTileType(buildingType.ordinal())) length += 2 * tileCounts[buildingType.ordinal()];
+			else length += 3 * numberOfBuildings[buildingType.ordinal()];
+		}
+		return length;
+	}
 
-			for (BuildingResource buildingResource : BuildingResource.values())
+	private int getNewId()
+	{
+		return ++lastIdUsed;
+	}
+	
+	/**
+	 * Replaces the design with an exported one. The undo history is
+	 * cleared, so the imported design is where undo stops.
+	 */
+	public void importData(CharSequence text) throws UnsupportedVersionException
+	{
+		beginBatch();
+		journalSuspended++;
+		try
+		{
+			importDesign(text);
+		}
+		finally
+		{
+			journalSuspended--;
+			commitBatch();
+		}
+	}
+
+	/*
+	 * The design is read in a single pass, with position moving along the
+	 * text section by section, so nothing is allocated apart from the tiles
+	 * and the small buffers for decoding coordinates.
+	 */
+	private void importDesign(CharSequence text) throws UnsupportedVersionException
+	{
+		int version = Character.getNumericValue(text.charAt(0));
+
+		resetGridData();
+
+		if (version == compactExportVersionId)
+		{
+			importCompactDesign(text);
+			return;
+		}
+
+		int position = 1;
+		boolean runs = version >= runLengthExportVersionId;
+		char[] alphaNumerics = new char[IMPORT_CHUNK_LENGTH];
+		int[] coordinates = new int[IMPORT_CHUNK_LENGTH];
+		position = importSingleTiles(BuildingType.WOODEN_WALL, text, position, runs, alphaNumerics, coordinates);
+		position = importSingleTiles(BuildingType.STONE_WALL, text, position, runs, alphaNumerics, coordinates);
+		position = importStructures(text, position);
+		position = importSingleTiles(BuildingType.MOAT, text, position, runs, alphaNumerics, coordinates);
+		position = importSingleTiles(BuildingType.KILLING_PIT, text, position, runs, alphaNumerics, coordinates);
+		if (version >= 3) importWorldAge(text, position);
+
+		if (version > runLengthExportVersionId) throw new UnsupportedVersionException(version);
+	}
+
+	/**
+	 * Reads a design written by getCompactExport. Unknown buildings, and
+	 * buildings off the grid, are skipped as they are for the plain export.
+	 */
+	private void importCompactDesign(CharSequence text)
+	{
+		byte[] bytes = new byte[Base62.getDecodedLength(text.length() - 1)];
+		Base62.decode(text, 1, text.length(), bytes);
+		BitReader bits = new BitReader(bytes, bytes.length);
+
+		importCompactSingleTiles(bits, BuildingType.WOODEN_WALL);
+		importCompactSingleTiles(bits, BuildingType.STONE_WALL);
+		importCompactStructures(bits);
+		importCompactSingleTiles(bits, BuildingType.MOAT);
+		importCompactSingleTiles(bits, BuildingType.KILLING_PIT);
+		setWorldAge(bits.readVarint());
+	}
+
+	private void importCompactSingleTiles(BitReader bits, BuildingType buildingType)
+	{
+		if (bits.read(1) == 0)
+		{
+			int numberOfTiles = bits.readVarint();
+			for (int i=0; i<numberOfTiles; i++)
 			{
-				int cumulativeCost = buildingResources.get(buildingResource) + buildingType.getCost(buildingResource) * numberOfBuildings;
-				
-				buildingResources.put(buildingResource, cumulativeCost);
+				int x = bits.readInt(COMPACT_COORDINATE_BITS);
+				int y = bits.readInt(COMPACT_COORDINATE_BITS);
+				setTile(tileIndex(x, y), TileBuilding.pack(buildingType, getNewId()));
 			}
-			totalBuildingTime += buildingType.getBuildTime() * numberOfBuildings;
 		}
+		else
+		{
+			long usedRows = bits.read(CASTLE_BOUNDRY_LENGTH);
+			for (int i=0; i<CASTLE_BOUNDRY_LENGTH; i++)
+			{
+				if ((usedRows & (1L << i)) == 0) continue;
+
+				long row = bits.read(CASTLE_BOUNDRY_LENGTH);
+				for (int j=0; j<CASTLE_BOUNDRY_LENGTH; j++)
+				{
+					if ((row & (1L << j)) != 0) setTile(tileIndex(i, j), TileBuilding.pack(buildingType, getNewId()));
+				}
+			}
+		}
+	}
+
+	private void importCompactStructures(BitReader bits)
+	{
+		BuildingType[] buildingTypes = BuildingType.values();
+
+		int numberOfStructures = bits.readVarint();
+		for (int i=0; i<numberOfStructures; i++)
+		{
+			int ordinal = bits.readInt(COMPACT_COORDINATE_BITS);
+			int x = bits.readInt(COMPACT_COORDINATE_BITS);
+			int y = bits.readInt(COMPACT_COORDINATE_BITS);
+			placeImportedStructure(buildingTypes, ordinal, x, y);
+		}
+	}
+
+	/**
+	 * Returns the position of the separator at the end of the section
+	 * starting at the given position, or the end of the text.
+	 */
+	private static int getSectionEnd(CharSequence text, int position)
+	{
+		while (position < text.length() && text.charAt(position) != Converter.seperator) position++;
+		return position;
+	}
+
+	private static void checkSectionLength(int start, int end, int step)
+	{
+		if ((end - start) % step != 0) throw new IllegalArgumentException("Incomplete section in import at " + start);
+	}
+
+	/**
+	 * @return the position of the next section
+	 */
+	private int importStructures(CharSequence text, int position)
+	{
+		int end = getSectionEnd(text, position);
+		checkSectionLength(position, end, 3);
+
+		BuildingType[] buildingTypes = BuildingType.values();
+		for (int i=position; i<end; i+=3)
+		{
+			int ordinal = Converter.alphaNumericToInt(text.charAt(i));
+			int x = Converter.alphaNumericToInt(text.charAt(i+1));
+			int y = Converter.alphaNumericToInt(text.charAt(i+2));
+
+			placeImportedStructure(buildingTypes, ordinal, x, y);
+		}
+		return Math.min(end + 1, text.length());
+	}
+
+	private void placeImportedStructure(BuildingType[] buildingTypes, int ordinal, int x, int y)
+	{
+		//The client is trying to load a building that it doesn't yet know about
+		//Best thing to do here is to gracefully ignore it! Same for buildings off the grid.
+		if (ordinal >= buildingTypes.length) return;
+
+		BuildingType buildingType = buildingTypes[ordinal];
+		int width = buildingType.getDimension().width;
+		int height = buildingType.getDimension().height;
+		if (x + width > CASTLE_BOUNDRY_LENGTH || y + height > CASTLE_BOUNDRY_LENGTH) return;
+
+		int tile = TileBuilding.pack(buildingType, getNewId());
+		for (int k=x; k<x+width; k++)
+		{
+			for (int l=y; l<y+height; l++)
+			{
+				setTile(k * CASTLE_BOUNDRY_LENGTH + l, tile);
+			}
+		}
+	}
+
+	/**
+	 * @return the position of the next section
+	 */
+	private int importSingleTiles(BuildingType buildingType, CharSequence text, int position, boolean runs,
+		char[] alphaNumerics, int[] coordinates)
+	{
+		int end = getSectionEnd(text, position);
+		if (!runs)
+		{
+			checkSectionLength(position, end, 2);
+			importSingleTilePairs(buildingType, text, position, end, alphaNumerics, coordinates);
+			return Math.min(end + 1, text.length());
+		}
+
+		int i = position;
+		while (i < end)
+		{
+			char c = text.charAt(i);
+			if (runs && (c == RUN_ACROSS || c == RUN_DOWN))
+			{
+				checkSectionLength(i, Math.min(end, i + 4), 4);
+				int x = Converter.alphaNumericToInt(text.charAt(i+1));
+				int y = Converter.alphaNumericToInt(text.charAt(i+2));
+				int length = Converter.alphaNumericToInt(text.charAt(i+3));
+
+				for (int k=0; k<length; k++)
+				{
+					if (c == RUN_ACROSS) setTile(tileIndex(x + k, y), TileBuilding.pack(buildingType, getNewId()));
+					else setTile(tileIndex(x, y + k), TileBuilding.pack(buildingType, getNewId()));
+				}
+				i += 4;
+			}
+			else
+			{
+				checkSectionLength(i, Math.min(end, i + 2), 2);
+				int x = Converter.alphaNumericToInt(c);
+				int y = Converter.alphaNumericToInt(text.charAt(i+1));
+
+				setTile(tileIndex(x, y), TileBuilding.pack(buildingType, getNewId()));
+				i += 2;
+			}
+		}
+		return Math.min(end + 1, text.length());
+	}
+
+	/**
+	 * Reads a section of coordinate pairs a chunk at a time, decoding each
+	 * chunk in one go.
+	 */
+	private void importSingleTilePairs(BuildingType buildingType, CharSequence text, int start, int end,
+		char[] alphaNumerics, int[] coordinates)
+	{
+		for (int chunk=start; chunk<end; chunk+=alphaNumerics.length)
+		{
+			int length = Math.min(alphaNumerics.length, end - chunk);
+			for (int i=0; i<length; i++) alphaNumerics[i] = text.charAt(chunk + i);
+
+			Converter.alphaNumericsToInts(alphaNumerics, 0, length, coordinates, 0);
+			for (int i=0; i<length; i+=2)
+			{
+				setTile(tileIndex(coordinates[i], coordinates[i+1]), TileBuilding.pack(buildingType, getNewId()));
+			}
+		}
+	}
+
+	private void importWorldAge(CharSequence text, int position)
+	{
+		int end = getSectionEnd(text, position);
+		if (end == position) return;
+
+		int worldAge = 0;
+		for (int i=position; i<end; i++)
+		{
+			int digit = Character.digit(text.charAt(i), 10);
+			if (digit < 0) throw new NumberFormatException("Invalid world age in import: " + text.subSequence(position, end));
+
+			worldAge = worldAge * 10 + digit;
+		}
+		setWorldAge(worldAge);
+	}
+	
+	public void addBuilding(Set<Point> buildingCoords, BuildingType buildingType)
+	{
+		//Check every coordinate first so a bad one doesn't leave half a building
+		int[] indexes = new int[buildingCoords.size()];
+		int count = 0;
+		for (Point p : buildingCoords)
+		{
+			indexes[count++] = tileIndex(p.x, p.y);
+		}
+
+		int tile = TileBuilding.pack(buildingType, getNewId());
+		try
+		{
+			for (int i=0; i<count; i++)
+			{
+				setTile(indexes[i], tile);
+			}
+		}
+		finally
+		{
+			//Closes the undo step even if a change fails part way
+			mutated();
+		}
+	}
+
+	public List<String> getDesignErrors()
+	{
+		return designErrors;
+	}
+
+	/**
+	 * Notified once for every change to the design, or once per batch when
+	 * changes are made in a batch.
+	 */
+	public void addDesignListener(DesignListener designListener)
+	{
+		designListeners.add(designListener);
+	}
+
+	public void removeDesignListener(DesignListener designListener)
+	{
+		designListeners.remove(designListener);
+	}
+
+	/**
+	 * Makes all the changes of the given edit as a single batch.
+	 *
+	 * @param castleEdit the changes to be made
+	 * @see #beginBatch()
+	 */
+	public void batch(CastleEdit castleEdit)
+	{
+		beginBatch();
+		try
+		{
+			castleEdit.edit(this);
+		}
+		finally
+		{
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Starts a batch of changes. Until the matching commitBatch, the
+	 * building limits are not re-checked and no listeners are notified.
+	 * Batches may be nested, in which case only the outermost commit counts.
+	 */
+	public void beginBatch()
+	{
+		batchDepth++;
+	}
+
+	/**
+	 * Ends a batch of changes started by beginBatch. The building limits
+	 * are re-checked and, if anything changed, listeners are notified once.
+	 */
+	public void commitBatch()
+	{
+		if (batchDepth == 0) throw new IllegalStateException("No batch to commit");
+
+		if (--batchDepth == 0) publishChanges();
+	}
+
+	/**
+	 * Called at the end of every public change to the design.
+	 */
+	private void mutated()
+	{
+		if (batchDepth == 0) publishChanges();
+	}
+
+	private void publishChanges()
+	{
+		undoJournal.endStep();
+		updateDesignErrors();
+
+		if (designChanged)
+		{
+			designChanged = false;
+			for (DesignListener designListener : designListeners)
+			{
+				designListener.designChanged();
+			}
+		}
+	}
+
+	/**
+	 * Reverts the last change to the design. A batch counts as a single
+	 * change.
+	 *
+	 * @return false if there was nothing to undo
+	 */
+	public boolean undo()
+	{
+		if (batchDepth > 0) throw new IllegalStateException("Cannot undo during a batch");
+
+		journalSuspended++;
+		try
+		{
+			if (!undoJournal.undo(journalReplay)) return false;
+		}
+		finally
+		{
+			journalSuspended--;
+		}
+		mutated();
+		return true;
+	}
+
+	/**
+	 * Reapplies the last change reverted by undo. Any new change to the
+	 * design forgets what could have been redone.
+	 *
+	 * @return false if there was nothing to redo
+	 */
+	public boolean redo()
+	{
+		if (batchDepth > 0) throw new IllegalStateException("Cannot redo during a batch");
+
+		journalSuspended++;
+		try
+		{
+			if (!undoJournal.redo(journalReplay)) return false;
+		}
+		finally
+		{
+			journalSuspended--;
+		}
+		mutated();
+		return true;
+	}
+
+	public boolean canUndo()
+	{
+		return undoJournal.canUndo();
+	}
+
+	public boolean canRedo()
+	{
+		return undoJournal.canRedo();
+	}
+
+	/**
+	 * Sets the most memory, in bytes, the undo history may use. The oldest
+	 * changes are forgotten first. Changing the limit clears the history.
+	 */
+	public void setUndoLimit(int limit)
+	{
+		if (batchDepth > 0) throw new IllegalStateException("Cannot change the undo limit during a batch");
+		if (limit < 0) throw new IllegalArgumentException("Invalid undo limit: " + limit);
+
+		undoJournal = new UndoJournal(limit);
+	}
+
+	public int getUndoLimit()
+	{
+		return undoJournal.getLimit();
+	}
+
+	public void addDesignErrorListener(DesignErrorListener designErrorListener)
+	{
+		designErrorListeners.add(designErrorListener);
+	}
+
+	public void removeDesignErrorListener(DesignErrorListener designErrorListener)
+	{
+		designErrorListeners.remove(designErrorListener);
+	}
+
+	/**
+	 * Stores a tile, moving it from its old building's ring to its new
+	 * building's ring.
+	 *
+	 * @param index the tile index, as returned by tileIndex
+	 * @param tile the packed tile to store
+	 */
+	private void setTile(int index, int tile)
+	{
+		int previousTile = gridData[index];
+		if (previousTile == tile) return;
+
+		if (previousTile != TileBuilding.EMPTY) unlinkTile(index, TileBuilding.unpackId(previousTile));
+		writeTile(index, tile);
+		if (tile != TileBuilding.EMPTY) linkTile(index, TileBuilding.unpackId(tile));
+	}
+
+	private void linkTile(int index, int id)
+	{
+		int anchor = buildingAnchors.get(id);
+
+		if (anchor == IntIntMap.NO_VALUE)
+		{
+			tileLinks[index] = index;
+			buildingAnchors.put(id, index);
+		}
+		else
+		{
+			tileLinks[index] = tileLinks[anchor];
+			tileLinks[anchor] = index;
+		}
+	}
+
+	private void unlinkTile(int index, int id)
+	{
+		int next = tileLinks[index];
+
+		if (next == index)
+		{
+			buildingAnchors.remove(id);
+		}
+		else
+		{
+			int previous = next;
+			while (tileLinks[previous] != index) previous = tileLinks[previous];
+
+			tileLinks[previous] = next;
+			if (buildingAnchors.get(id) == index) buildingAnchors.put(id, next);
+		}
+	}
+
+	/**
+	 * Every change to a tile goes through here so that the running design
+	 * statistics stay in step with the grid. The building rings are left
+	 * alone and must be kept up to date by the caller.
+	 */
+	private void writeTile(int index, int tile)
+	{
+		int previousTile = gridData[index];
+		if (previousTile == tile) return;
+
+		if (journalSuspended == 0) undoJournal.record(index, previousTile, tile);
+		gridData[index] = tile;
+		dirtyColumns |= 1L << (index / CASTLE_BOUNDRY_LENGTH);
+		designChanged = true;
+		modCount++;
+
+		if (previousTile != TileBuilding.EMPTY)
+		{
+			updateTileCount(TileBuilding.unpackType(previousTile), -1);
+			tileHash ^= getTileKey(index, TileBuilding.unpackOrdinal(previousTile));
+
+			boolean[] layers = occupancyLayers[TileBuilding.unpackOrdinal(previousTile)];
+			for (int i=0; i<layers.length; i++)
+			{
+				if (layers[i])
+				{
+					occupancy[i].clear(index);
+					summedAreaTablesStale[i] = true;
+				}
+			}
+		}
+		if (tile != TileBuilding.EMPTY)
+		{
+			updateTileCount(TileBuilding.unpackType(tile), 1);
+			tileHash ^= getTileKey(index, TileBuilding.unpackOrdinal(tile));
+
+			boolean[] layers = occupancyLayers[TileBuilding.unpackOrdinal(tile)];
+			for (int i=0; i<layers.length; i++)
+			{
+				if (layers[i])
+				{
+					occupancy[i].set(index);
+					summedAreaTablesStale[i] = true;
+				}
+			}
+		}
+	}
+
+	private static boolean[][] createOccupancyLayers()
+	{
+		boolean[][] layers = new boolean[BuildingType.values().length][OccupancyLayer.values().length];
+
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			for (OccupancyLayer occupancyLayer : OccupancyLayer.values())
+			{
+				layers[buildingType.ordinal()][occupancyLayer.ordinal()] = occupancyLayer.contains(buildingType);
+			}
+		}
+		return layers;
+	}
+
+	private void updateTileCount(BuildingType buildingType, int delta)
+	{
+		int ordinal = buildingType.ordinal();
+		int numberOfTiles = tileCounts[ordinal] += delta;
+
+		int buildingDelta = calculateNumberOfBuildings(buildingType, numberOfTiles) - numberOfBuildings[ordinal];
+
+		if (buildingDelta != 0)
+		{
+			numberOfBuildings[ordinal] += buildingDelta;
+
+			int[] costs = BuildingType.COST_MATRIX[ordinal];
+			for (int i=0; i<costs.length; i++)
+			{
+				totalResources[i] += costs[i] * buildingDelta;
+			}
+			totalBuildingTime += buildingType.getBuildTime() * buildingDelta;
+
+			if (limitedBuildings.contains(buildingType)) designErrorsStale = true;
+		}
+	}
+
+	/**
+	 * Empties every tile, including the Keep, and zeroes the statistics.
+	 */
+	private void clearGridData()
+	{
+		Arrays.fill(gridData, TileBuilding.EMPTY);
+		dirtyColumns = -1L;
+		Arrays.fill(tileCounts, 0);
+		buildingAnchors.clear();
+		for (Bitboard bitboard : occupancy) bitboard.clearAll();
+		Arrays.fill(summedAreaTablesStale, true);
+		tileHash = 0;
+		lastIdUsed = 0;
+
+		Arrays.fill(numberOfBuildings, 0);
+		Arrays.fill(totalResources, 0);
+		totalBuildingTime = 0;
+		designErrorsStale = true;
+		designChanged = true;
+		modCount++;
+	}
+
+	/**
+	 * Re-checks the building limits, but only if a limited building count
+	 * or the world age has changed since the last check.
+	 */
+	private void updateDesignErrors()
+	{
+		if (!designErrorsStale) return;
+
+		designErrorsStale = false;
+
+		List<String> errors = validateBuildingLimits(tileCounts);
+		if (!errors.equals(designErrors))
+		{
+			designErrors.clear();
+			designErrors.addAll(errors);
+
+			for (DesignErrorListener designErrorListener : designErrorListeners)
+			{
+				designErrorListener.designErrorsChanged(designErrors);
+			}
+		}
+	}
+
+	List<String> validateBuildingLimits(int[] buildingCounts)
+	{
+		List<String> errors = new ArrayList<String>();
 
 		for (BuildingType buildingType : limitedBuildings)
 		{
@@ -331,37 +1542,131 @@ public class Castle
 				buildingCounts[buildingType.ordinal()],
 				getMaximumNumberOfBuildings(buildingType, worldAge));
 
-			if (designError != null) designErrors.add(designError);
+			if (designError != null) errors.add(designError);
+		}
+		return errors;
+	}
+
+	/**
+	 * Checks that every tile is on its building's ring and every ring only
+	 * holds tiles of one building. This is a debugging aid and is not
+	 * needed in normal use.
+	 *
+	 * @throws IllegalStateException if the index is out of step with the
+	 *                               grid
+	 */
+	void verifyBuildingIndex()
+	{
+		int linkedTiles = 0;
+
+		for (int slot=0; slot<buildingAnchors.getCapacity(); slot++)
+		{
+			if (!buildingAnchors.isUsed(slot)) continue;
+
+			int id = buildingAnchors.getKey(slot);
+			int anchor = buildingAnchors.getValue(slot);
+			int index = anchor;
+			do
+			{
+				if (gridData[index] == TileBuilding.EMPTY || TileBuilding.unpackId(gridData[index]) != id)
+				{
+					throw new IllegalStateException("Tile " + index + " is on the ring of building " + id);
+				}
+				linkedTiles++;
+				if (linkedTiles > gridData.length) throw new IllegalStateException("Building " + id + " has a broken ring");
+
+				index = tileLinks[index];
+			}
+			while (index != anchor);
+		}
+
+		int occupiedTiles = 0;
+		for (int tile : gridData)
+		{
+			if (tile != TileBuilding.EMPTY) occupiedTiles++;
+		}
+		if (occupiedTiles != linkedTiles)
+		{
+			throw new IllegalStateException(occupiedTiles + " tiles are occupied but " + linkedTiles + " are indexed");
 		}
-		updateErrorPanel();
 	}
 
-	private void updateErrorPanel()
+	/**
+	 * Rescans every tile and checks that the running statistics match.
+	 * This is a debugging aid and is not needed in normal use.
+	 *
+	 * @throws IllegalStateException if the statistics are out of step with
+	 *                               the grid
+	 */
+	void verifyDesignStats()
 	{
-		JPanel errorPanel = Editor.getErrorPanel();
-		if (errorPanel != null)
+		int[] buildingCounts = new int[BuildingType.values().length];
+		long hash = 0;
+
+		for (int i=0; i<gridData.length; i++)
+		{
+			if (gridData[i] != TileBuilding.EMPTY)
+			{
+				buildingCounts[TileBuilding.unpackOrdinal(gridData[i])]++;
+				hash ^= getTileKey(i, TileBuilding.unpackOrdinal(gridData[i]));
+			}
+		}
+		if (hash != tileHash)
+		{
+			throw new IllegalStateException("Tile hash " + Long.toHexString(tileHash) + " should be " + Long.toHexString(hash));
+		}
+		if (!Arrays.equals(buildingCounts, tileCounts))
+		{
+			throw new IllegalStateException("Tile counts " + Arrays.toString(tileCounts) + " should be " + Arrays.toString(buildingCounts));
+		}
+
+		int[] resources = new int[BuildingResource.values().length];
+		int buildingTime = 0;
+
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			int numberOfBuildings = calculateNumberOfBuildings(buildingType, buildingCounts[buildingType.ordinal()]);
+			if (numberOfBuildings != getNumberOfBuildings(buildingType))
+			{
+				throw new IllegalStateException("Number of " + buildingType + "s " + getNumberOfBuildings(buildingType) + " should be " + numberOfBuildings);
+			}
+
+			for (BuildingResource buildingResource : BuildingResource.values())
+			{
+				resources[buildingResource.ordinal()] += buildingType.getCost(buildingResource) * numberOfBuildings;
+			}
+			buildingTime += buildingType.getBuildTime() * numberOfBuildings;
+		}
+
+		if (!Arrays.equals(resources, totalResources))
+		{
+			throw new IllegalStateException("Resources " + Arrays.toString(totalResources) + " should be " + Arrays.toString(resources));
+		}
+		if (buildingTime != totalBuildingTime)
+		{
+			throw new IllegalStateException("Building time " + totalBuildingTime + " should be " + buildingTime);
+		}
+		if (!validateBuildingLimits(buildingCounts).equals(designErrors))
+		{
+			throw new IllegalStateException("Design errors " + designErrors + " should be " + validateBuildingLimits(buildingCounts));
+		}
+		for (CachedExport cachedExport : cachedExports)
 		{
-			errorPanel.removeAll();
-			for (String designError : designErrors)
+			if (cachedExport != null && cachedExport.modCount == modCount && cachedExport.fingerprint != getFingerprint())
 			{
-				JLabel designErrorLabel = new JLabel(designError);
-				designErrorLabel.setForeground(Color.red);
-				designErrorLabel.setFont(new Font(designErrorLabel.getFont().getName(),
-					Font.BOLD, designErrorLabel.getFont().getSize()));
-				errorPanel.add(designErrorLabel);
+				throw new IllegalStateException("Cached export " + cachedExport.exportString + " is out of date");
 			}
-			errorPanel.revalidate();
 		}
 	}
 
 	public int getNumberOfBuildings(BuildingType buildingType)
 	{
-		return buildingQuantities.get(buildingType);
+		return numberOfBuildings[buildingType.ordinal()];
 	}
 
 	public int getTotalResource(BuildingResource resource)
 	{
-		return buildingResources.get(resource);
+		return totalResources[resource.ordinal()];
 	}
 
 	public int getTotalBuildingTime()
@@ -369,7 +1674,7 @@ public class Castle
 		return totalBuildingTime;
 	}
 
-	private int calculateNumberOfBuildings(BuildingType buildingType, int numberOfTiles)
+	static int calculateNumberOfBuildings(BuildingType buildingType, int numberOfTiles)
 	{
 		return numberOfTiles / (buildingType.getDimension().width * buildingType.getDimension().height);
 	}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Point;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hypothetical changes layered on top of a castle. Only the changed tiles
+ * are held by the sandbox; everything else is read from the castle, which
+ * is never changed. A sandbox can be reset and reused, so trying out many
+ * variants costs very little.
+ *
+ * The castle must not be changed while the sandbox is in use.
+ *
+ * @author David Green
+ * @see Castle#sandbox()
+ */
+public final class CastleSandbox
+{
+	private static final int SIZE = Castle.CASTLE_BOUNDRY_LENGTH * Castle.CASTLE_BOUNDRY_LENGTH;
+
+	private final Castle castle;
+	private int expectedModCount;
+
+	//The changed tiles: their new values, which ones they are, and a list of them for resetting
+	private final int[] tiles = new int[SIZE];
+	private final long[] changed = new long[(SIZE + 63) >>> 6];
+	private final int[] changedTiles = new int[SIZE];
+	private int numberOfChangedTiles = 0;
+
+	private final int[] tileCountDeltas = new int[BuildingType.values().length];
+	private long tileHashDelta = 0;
+	private int lastIdUsed;
+
+	CastleSandbox(Castle castle)
+	{
+		this.castle = castle;
+		reset();
+	}
+
+	/**
+	 * Throws away all changes made in the sandbox, and brings it up to
+	 * date with any changes since made to the castle.
+	 */
+	public void reset()
+	{
+		for (int i=0; i<numberOfChangedTiles; i++)
+		{
+			changed[changedTiles[i] >>> 6] = 0;
+		}
+		numberOfChangedTiles = 0;
+
+		for (int i=0; i<tileCountDeltas.length; i++) tileCountDeltas[i] = 0;
+		tileHashDelta = 0;
+
+		lastIdUsed = castle.getLastIdUsed();
+		expectedModCount = castle.getModCount();
+	}
+
+	/**
+	 * Returns the castle underneath this sandbox.
+	 */
+	public Castle getCastle()
+	{
+		return castle;
+	}
+
+	/**
+	 * Returns true if any tile has been changed in the sandbox.
+	 */
+	public boolean isChanged()
+	{
+		return numberOfChangedTiles > 0;
+	}
+
+	/**
+	 * @see Castle#getGridData(int, int)
+	 */
+	public TileBuilding getGridData(int x, int y)
+	{
+		return TileBuilding.unpack(getTile(Castle.tileIndex(x, y)));
+	}
+
+	/**
+	 * @see Castle#getBuildingType(int, int)
+	 */
+	public BuildingType getBuildingType(int x, int y)
+	{
+		return TileBuilding.unpackType(getTile(Castle.tileIndex(x, y)));
+	}
+
+	/**
+	 * @see Castle#getBuildingId(int, int)
+	 */
+	public int getBuildingId(int x, int y)
+	{
+		return TileBuilding.unpackId(getTile(Castle.tileIndex(x, y)));
+	}
+
+	/**
+	 * @see Castle#addBuilding(Set, BuildingType)
+	 */
+	public void addBuilding(Set<Point> buildingCoords, BuildingType buildingType)
+	{
+		checkForComodification();
+
+		int tile = TileBuilding.pack(buildingType, ++lastIdUsed);
+
+		for (Point p : buildingCoords)
+		{
+			setTile(Castle.tileIndex(p.x, p.y), tile);
+		}
+	}
+
+	/**
+	 * Removes the whole building on the given tile, if there is one.
+	 * Only the building's own tiles and the tiles changed in the sandbox
+	 * are visited.
+	 */
+	public void removeBuilding(int x, int y)
+	{
+		checkForComodification();
+
+		int tile = getTile(Castle.tileIndex(x, y));
+		if (tile == TileBuilding.EMPTY) return;
+
+		int id = TileBuilding.unpackId(tile);
+
+		//Tiles of the castle's own building that haven't been built over
+		int anchor = castle.getBuildingAnchor(id);
+		if (anchor >= 0)
+		{
+			int index = anchor;
+			do
+			{
+				if (!isChanged(index)) setTile(index, TileBuilding.EMPTY);
+				index = castle.getNextTile(index);
+			}
+			while (index != anchor);
+		}
+
+		//Tiles given the building in the sandbox
+		for (int i=0; i<numberOfChangedTiles; i++)
+		{
+			int index = changedTiles[i];
+			if (tiles[index] != TileBuilding.EMPTY && TileBuilding.unpackId(tiles[index]) == id)
+			{
+				setTile(index, TileBuilding.EMPTY);
+			}
+		}
+	}
+
+	/**
+	 * @see Castle#isPlaceable(BuildingType, int, int)
+	 */
+	public boolean isPlaceable(BuildingType buildingType, int x, int y)
+	{
+		checkForComodification();
+
+		//Untouched castles can use the castle's own bitboards
+		if (numberOfChangedTiles == 0) return castle.isPlaceable(buildingType, x, y);
+
+		int width = buildingType.getDimension().width;
+		int height = buildingType.getDimension().height;
+
+		if (x < 0 || y < 0 || x + width > Castle.CASTLE_BOUNDRY_LENGTH || y + height > Castle.CASTLE_BOUNDRY_LENGTH) return false;
+
+		for (int i=Math.max(x - 1, 0); i<Math.min(x + width + 1, Castle.CASTLE_BOUNDRY_LENGTH); i++)
+		{
+			for (int j=Math.max(y - 1, 0); j<Math.min(y + height + 1, Castle.CASTLE_BOUNDRY_LENGTH); j++)
+			{
+				BuildingType neighbour = TileBuilding.unpackType(getTile(Castle.tileIndex(i, j)));
+				if (neighbour == null) continue;
+
+				boolean inside = i >= x && i < x + width && j >= y && j < y + height;
+				if (inside && OccupancyLayer.BLOCKING.contains(neighbour)) return false;
+				if (buildingType.isGapRequired() && neighbour.isGapRequired()) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the fingerprint the castle would have with the sandbox's
+	 * changes made to it.
+	 *
+	 * @see Castle#getFingerprint()
+	 */
+	public long getFingerprint()
+	{
+		checkForComodification();
+
+		return castle.getFingerprint() ^ tileHashDelta;
+	}
+
+	/**
+	 * @see Castle#getNumberOfBuildings(BuildingType)
+	 */
+	public int getNumberOfBuildings(BuildingType buildingType)
+	{
+		checkForComodification();
+
+		return Castle.calculateNumberOfBuildings(buildingType, getTileCount(buildingType));
+	}
+
+	/**
+	 * @see Castle#getTotalResource(BuildingResource)
+	 */
+	public int getTotalResource(BuildingResource resource)
+	{
+		int totalResource = castle.getTotalResource(resource);
+
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			if (tileCountDeltas[buildingType.ordinal()] != 0)
+			{
+				totalResource += buildingType.getCost(resource) * getChangeInNumberOfBuildings(buildingType);
+			}
+		}
+		return totalResource;
+	}
+
+	/**
+	 * @see Castle#getTotalBuildingTime()
+	 */
+	public int getTotalBuildingTime()
+	{
+		int totalBuildingTime = castle.getTotalBuildingTime();
+
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			if (tileCountDeltas[buildingType.ordinal()] != 0)
+			{
+				totalBuildingTime += buildingType.getBuildTime() * getChangeInNumberOfBuildings(buildingType);
+			}
+		}
+		return totalBuildingTime;
+	}
+
+	/**
+	 * @see Castle#getDesignErrors()
+	 */
+	public List<String> getDesignErrors()
+	{
+		checkForComodification();
+
+		int[] buildingCounts = new int[BuildingType.values().length];
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			buildingCounts[buildingType.ordinal()] = getTileCount(buildingType);
+		}
+		return castle.validateBuildingLimits(buildingCounts);
+	}
+
+	private int getChangeInNumberOfBuildings(BuildingType buildingType)
+	{
+		checkForComodification();
+
+		return Castle.calculateNumberOfBuildings(buildingType, getTileCount(buildingType)) - castle.getNumberOfBuildings(buildingType);
+	}
+
+	private int getTileCount(BuildingType buildingType)
+	{
+		return castle.getTileCount(buildingType) + tileCountDeltas[buildingType.ordinal()];
+	}
+
+	private boolean isChanged(int index)
+	{
+		return (changed[index >>> 6] & (1L << index)) != 0;
+	}
+
+	private int getTile(int index)
+	{
+		return isChanged(index) ? tiles[index] : castle.getTile(index);
+	}
+
+	private void setTile(int index, int tile)
+	{
+		int previousTile = getTile(index);
+		if (previousTile == tile) return;
+
+		if (!isChanged(index))
+		{
+			changed[index >>> 6] |= 1L << index;
+			changedTiles[numberOfChangedTiles++] = index;
+		}
+		tiles[index] = tile;
+
+		if (previousTile != TileBuilding.EMPTY)
+		{
+			tileCountDeltas[TileBuilding.unpackOrdinal(previousTile)]--;
+			tileHashDelta ^= Castle.getTileKey(index, TileBuilding.unpackOrdinal(previousTile));
+		}
+		if (tile != TileBuilding.EMPTY)
+		{
+			tileCountDeltas[TileBuilding.unpackOrdinal(tile)]++;
+			tileHashDelta ^= Castle.getTileKey(index, TileBuilding.unpackOrdinal(tile));
+		}
+	}
+
+	private void checkForComodification()
+	{
+		if (castle.getModCount() != expectedModCount) throw new ConcurrentModificationException();
+	}
+}
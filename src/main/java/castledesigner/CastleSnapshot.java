@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An unchanging copy of a castle's design, which can be handed to other
+ * threads while the castle carries on being edited.
+ *
+ * The grid is held as one array per column. A castle remembers which
+ * columns have changed since its last snapshot, and the next snapshot
+ * shares every other column with it, so taking a snapshot after placing a
+ * building only copies the columns the building is on.
+ *
+ * @author David Green
+ * @see Castle#snapshot()
+ */
+public final class CastleSnapshot
+{
+	private final int[][] columns;
+	private final int worldAge;
+	private final long fingerprint;
+	private final int lastIdUsed;
+	private final int[] numberOfBuildings;
+	private final int[] totalResources;
+	private final int totalBuildingTime;
+	private final List<String> designErrors;
+
+	CastleSnapshot(int[][] columns, int worldAge, long fingerprint, int lastIdUsed, int[] tileCounts,
+		int[] totalResources, int totalBuildingTime, List<String> designErrors)
+	{
+		this.columns = columns;
+		this.worldAge = worldAge;
+		this.fingerprint = fingerprint;
+		this.lastIdUsed = lastIdUsed;
+		this.totalResources = totalResources;
+		this.totalBuildingTime = totalBuildingTime;
+		this.designErrors = Collections.unmodifiableList(new ArrayList<String>(designErrors));
+
+		numberOfBuildings = new int[tileCounts.length];
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			numberOfBuildings[buildingType.ordinal()] = Castle.calculateNumberOfBuildings(buildingType, tileCounts[buildingType.ordinal()]);
+		}
+	}
+
+	/**
+	 * Returns the packed tiles of column x, indexed by y. Not to be changed.
+	 */
+	int[] getColumn(int x)
+	{
+		return columns[x];
+	}
+
+	int getLastIdUsed()
+	{
+		return lastIdUsed;
+	}
+
+	/**
+	 * @see Castle#getGridData(int, int)
+	 */
+	public TileBuilding getGridData(int x, int y)
+	{
+		return TileBuilding.unpack(columns[x][y]);
+	}
+
+	/**
+	 * @see Castle#getBuildingType(int, int)
+	 */
+	public BuildingType getBuildingType(int x, int y)
+	{
+		return TileBuilding.unpackType(columns[x][y]);
+	}
+
+	/**
+	 * @see Castle#getBuildingId(int, int)
+	 */
+	public int getBuildingId(int x, int y)
+	{
+		return TileBuilding.unpackId(columns[x][y]);
+	}
+
+	public int getWorldAge()
+	{
+		return worldAge;
+	}
+
+	/**
+	 * @see Castle#getFingerprint()
+	 */
+	public long getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	public int getNumberOfBuildings(BuildingType buildingType)
+	{
+		return numberOfBuildings[buildingType.ordinal()];
+	}
+
+	public int getTotalResource(BuildingResource resource)
+	{
+		return totalResources[resource.ordinal()];
+	}
+
+	public int getTotalBuildingTime()
+	{
+		return totalBuildingTime;
+	}
+
+	public List<String> getDesignErrors()
+	{
+		return designErrors;
+	}
+
+	/**
+	 * Returns a new castle with this design, e.g. for exporting or saving
+	 * it on another thread.
+	 *
+	 * @return a new castle
+	 */
+	public Castle toCastle()
+	{
+		return new Castle(this);
+	}
+}
@@ -20,6 +20,8 @@
  */
 package castledesigner;
 
+import java.util.Arrays;
+
 /**
  * Compresses a numeric string into an alphanumeric string (case sensitive).
  * Our coordinate system is 52x52 tiles, so fits nicely into the alphanumeric
@@ -34,6 +36,27 @@ public class Converter
 {
 	public static final char seperator = 'Z';
 
+	private static final int MAXIMUM_VALUE = 60;
+
+	//The character for each value, padded to 64 so that masked values can't go out of range
+	private static final char[] ALPHA_NUMERICS = new char[64];
+	//The value of each ASCII character, or -1 if it isn't one of ours
+	private static final byte[] VALUES = new byte[128];
+
+	static
+	{
+		Arrays.fill(VALUES, (byte)-1);
+		for (int i=0; i<ALPHA_NUMERICS.length; i++)
+		{
+			if (i < 10) ALPHA_NUMERICS[i] = (char)(i + '0');
+			else if (i < 36) ALPHA_NUMERICS[i] = (char)(i - 10 + 'a');
+			else if (i <= MAXIMUM_VALUE) ALPHA_NUMERICS[i] = (char)(i - 36 + 'A');
+			else ALPHA_NUMERICS[i] = seperator;
+
+			if (i <= MAXIMUM_VALUE) VALUES[ALPHA_NUMERICS[i]] = (byte)i;
+		}
+	}
+
 	/**
 	 * Encodes an integer between 0 and 60 inclusive into an alphanumeric
 	 * character.
@@ -43,11 +66,9 @@ public class Converter
 	 */
 	public static char intToAlphaNumeric(int integer)
 	{
-		if (integer < 0 || integer > 60) throw new IllegalArgumentException("Invalid number: " + integer);
+		if (integer < 0 || integer > MAXIMUM_VALUE) throw new IllegalArgumentException("Invalid number: " + integer);
 
-		if (integer < 10) return (char)(integer + '0');
-		else if (integer < 36) return (char)(integer - 10 + 'a');
-		else return (char)(integer - 36 + 'A');
+		return ALPHA_NUMERICS[integer];
 	}
 
 	/**
@@ -59,9 +80,64 @@ public class Converter
 	 */
 	public static int alphaNumericToInt(char alphaNumeric)
 	{
-		if (alphaNumeric >= 'A' && alphaNumeric < 'Z') return alphaNumeric - 'A' + 36;
-		else if (alphaNumeric >= 'a' && alphaNumeric <= 'z') return alphaNumeric - 'a' + 10;
-		else if (alphaNumeric >= '0' && alphaNumeric <= '9') return alphaNumeric - '0';
-		else throw new IllegalArgumentException("Unexpected character in import: " + alphaNumeric);
+		int value = alphaNumeric < VALUES.length ? VALUES[alphaNumeric] : -1;
+		if (value < 0) throw new IllegalArgumentException("Unexpected character in import: " + alphaNumeric);
+
+		return value;
+	}
+
+	/**
+	 * Encodes integers between 0 and 60 inclusive into alphanumeric
+	 * characters.
+	 *
+	 * @param integers the integers to be encoded
+	 * @param offset the index of the first integer
+	 * @param length the number of integers
+	 * @param alphaNumerics where to put the characters
+	 * @param alphaNumericsOffset the index of the first character
+	 */
+	public static void intsToAlphaNumerics(int[] integers, int offset, int length, char[] alphaNumerics, int alphaNumericsOffset)
+	{
+		//Invalid numbers are looked for afterwards, to keep the loop simple
+		int invalid = 0;
+		for (int i=0; i<length; i++)
+		{
+			int integer = integers[offset + i];
+			invalid |= integer | (MAXIMUM_VALUE - integer);
+			alphaNumerics[alphaNumericsOffset + i] = ALPHA_NUMERICS[integer & 63];
+		}
+		if (invalid < 0) checkIntegers(integers, offset, length);
+	}
+
+	/**
+	 * Decodes alphanumeric characters into integers between 0 and 60
+	 * inclusive.
+	 *
+	 * @param alphaNumerics the characters to be decoded
+	 * @param offset the index of the first character
+	 * @param length the number of characters
+	 * @param integers where to put the integers
+	 * @param integersOffset the index of the first integer
+	 */
+	public static void alphaNumericsToInts(char[] alphaNumerics, int offset, int length, int[] integers, int integersOffset)
+	{
+		//Characters outside the table are masked into it, then caught afterwards
+		int invalid = 0;
+		for (int i=0; i<length; i++)
+		{
+			char alphaNumeric = alphaNumerics[offset + i];
+			int value = VALUES[alphaNumeric & 127];
+			invalid |= value | (127 - alphaNumeric);
+			integers[integersOffset + i] = value;
+		}
+		if (invalid < 0)
+		{
+			for (int i=0; i<length; i++) alphaNumericToInt(alphaNumerics[offset + i]);
+		}
+	}
+
+	private static void checkIntegers(int[] integers, int offset, int length)
+	{
+		for (int i=0; i<length; i++) intToAlphaNumeric(integers[offset + i]);
 	}
-}
\ No newline at end of file
+}
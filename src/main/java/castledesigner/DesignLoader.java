@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads the export string back out of a saved design image. Images saved
+ * by DesignWriter carry it in a text chunk, which is found by skipping
+ * from chunk header to chunk header without decoding any pixels. Older
+ * images fall back to the barcode, and then only the band at the top of
+ * the image holding the barcode is decoded.
+ *
+ * @author David Green
+ */
+public final class DesignLoader
+{
+	private static final byte[] PNG_SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	private static final int TEXT_CHUNK = 0x74455874; //tEXt
+	private static final int IHDR_CHUNK = 0x49484452;
+	private static final int IDAT_CHUNK = 0x49444154;
+	private static final int IEND_CHUNK = 0x49454e44;
+	private static final int IHDR_LENGTH = 13;
+
+	//PNG colour types
+	private static final int GREY = 0;
+	private static final int RGB = 2;
+	private static final int GREY_ALPHA = 4;
+	private static final int RGB_ALPHA = 6;
+
+	private static final int INFLATE_BUFFER_SIZE = 8192;
+
+	//Far wider than any image the editor saves
+	private static final int MAXIMUM_PROBE_WIDTH = 1 << 16;
+
+	//Far longer than any export string, which is a few characters per tile at most
+	private static final int MAXIMUM_DESIGN_LENGTH = 1 << 20;
+
+	private DesignLoader()
+	{
+	}
+
+	/**
+	 * Reads the export string from a design image, from its text chunk if
+	 * it has one, otherwise from its barcode.
+	 *
+	 * @param file the image saved by the editor
+	 * @return the export string
+	 * @throws IOException if the file couldn't be read
+	 * @throws InvalidBarcodeException if the file isn't an image or has no
+	 *                                 valid barcode
+	 */
+	public static String readDesign(File file) throws IOException, InvalidBarcodeException
+	{
+		String design = readTextChunk(file);
+		if (design != null) return design;
+
+		return readBarcode(file);
+	}
+
+	/**
+	 * Looks through the chunks of a PNG file for the design's text chunk,
+	 * reading only the chunk headers and skipping over everything else.
+	 *
+	 * @param file the image saved by the editor
+	 * @return the export string, or null if the file isn't a PNG or has
+	 *         no intact design chunk
+	 * @throws IOException if the file couldn't be read
+	 */
+	static String readTextChunk(File file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			byte[] signature = new byte[PNG_SIGNATURE.length];
+			in.readFully(signature);
+			if (!Arrays.equals(signature, PNG_SIGNATURE)) return null;
+
+			while (true)
+			{
+				long length = in.readInt() & 0xffffffffL;
+				int type = in.readInt();
+
+				if (type == IEND_CHUNK) return null;
+				else if (type == TEXT_CHUNK)
+				{
+					String design = readDesignText(in, type, length);
+					if (design != null) return design;
+				}
+				else skipFully(in, length + 4);
+			}
+		}
+		catch (EOFException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Quickly decides whether a file could be a design image, for scanning
+	 * folders full of other pictures. Only the PNG header and then either
+	 * the design's text chunk or the first rows of pixels are read, and of
+	 * those pixels only the border around the barcode is checked. Pixel
+	 * formats that aren't decoded here fall back to reading the barcode.
+	 *
+	 * @param file the file to check
+	 * @return false if the file certainly isn't a design image, true if it
+	 *         is worth reading
+	 * @throws IOException if the file couldn't be read
+	 */
+	public static boolean isDesign(File file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			byte[] signature = new byte[PNG_SIGNATURE.length];
+			in.readFully(signature);
+			if (!Arrays.equals(signature, PNG_SIGNATURE)) return false;
+
+			//The header always comes first
+			if (in.readInt() != IHDR_LENGTH || in.readInt() != IHDR_CHUNK) return false;
+			int width = in.readInt();
+			int height = in.readInt();
+			int bitDepth = in.readUnsignedByte();
+			int colourType = in.readUnsignedByte();
+			in.readUnsignedShort(); //Compression and filter methods
+			int interlace = in.readUnsignedByte();
+			in.readInt(); //CRC
+
+			if (!Barcode.isImageSizeValid(width, height)) return false;
+			//A bogus width mustn't turn into a huge row buffer, here or in the fallback
+			if (width > MAXIMUM_PROBE_WIDTH) return false;
+			//Grey images can't hold the colours of a barcode
+			if (colourType == GREY || colourType == GREY_ALPHA) return false;
+			int bytesPerPixel = getBytesPerPixel(bitDepth, colourType, interlace);
+
+			while (bytesPerPixel > 0)
+			{
+				long length = in.readInt() & 0xffffffffL;
+				int type = in.readInt();
+
+				if (type == IEND_CHUNK) return false;
+				else if (type == IDAT_CHUNK)
+				{
+					return hasFrame(in, length, width, bytesPerPixel);
+				}
+				else if (type == TEXT_CHUNK)
+				{
+					if (readDesignText(in, type, length) != null) return true;
+				}
+				else skipFully(in, length + 4);
+			}
+		}
+		catch (EOFException e)
+		{
+			return false;
+		}
+
+		try
+		{
+			readBarcode(file);
+			return true;
+		}
+		catch (InvalidBarcodeException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the bytes per pixel of the pixel formats isDesign decodes
+	 * itself, which are those the editor saves, or 0 for any other.
+	 */
+	private static int getBytesPerPixel(int bitDepth, int colourType, int interlace)
+	{
+		if (bitDepth != 8 || interlace != 0) return 0;
+		else if (colourType == RGB) return 3;
+		else if (colourType == RGB_ALPHA) return 4;
+		else return 0;
+	}
+
+	/**
+	 * Inflates and unfilters just enough of the image data to check the
+	 * pixels of Barcode.getFrameRegion(), a row at a time so that most
+	 * images are rejected after the first couple of rows.
+	 *
+	 * @param in the stream, just after the header of the first data chunk
+	 * @param length the length of the first data chunk
+	 * @param width the width of the image
+	 * @param bytesPerPixel the bytes per pixel of the image
+	 * @return true if the frame is there, false if not or if the image
+	 *         data is broken
+	 */
+	private static boolean hasFrame(DataInputStream in, long length, int width, int bytesPerPixel) throws IOException
+	{
+		Rectangle region = Barcode.getFrameRegion();
+		int[] pixels = new int[region.width * region.height];
+
+		//Each row starts with its filter type, and only the start of each row is needed
+		long rowLength = 1 + (long)width * bytesPerPixel;
+		if (rowLength > Integer.MAX_VALUE) return false;
+		byte[] row = new byte[(int)rowLength];
+		byte[] previousRow = new byte[row.length];
+		int rowStart = 1 + (region.x + region.width) * bytesPerPixel;
+
+		byte[] input = new byte[INFLATE_BUFFER_SIZE];
+		Inflater inflater = new Inflater();
+		try
+		{
+			for (int y=0; y<region.y + region.height; y++)
+			{
+				int filled = 0;
+				while (filled < row.length)
+				{
+					int inflated = inflater.inflate(row, filled, row.length - filled);
+					filled += inflated;
+
+					if (inflated == 0)
+					{
+						if (!inflater.needsInput()) return false;
+
+						//The image data may be split across several chunks
+						while (length == 0)
+						{
+							in.readInt(); //CRC
+							length = in.readInt() & 0xffffffffL;
+							if (in.readInt() != IDAT_CHUNK) return false;
+						}
+						int count = (int)Math.min(length, input.length);
+						in.readFully(input, 0, count);
+						inflater.setInput(input, 0, count);
+						length -= count;
+					}
+				}
+				if (!unfilter(row, previousRow, rowStart, bytesPerPixel)) return false;
+
+				if (y >= region.y)
+				{
+					for (int x=region.x; x<region.x + region.width; x++)
+					{
+						int i = 1 + x * bytesPerPixel;
+						int alpha = bytesPerPixel == 4 ? row[i + 3] & 0xff : 0xff;
+						pixels[(y - region.y) * region.width + x - region.x] =
+							alpha << 24 | (row[i] & 0xff) << 16 | (row[i + 1] & 0xff) << 8 | (row[i + 2] & 0xff);
+					}
+					if (!Barcode.hasFrame(pixels, y - region.y + 1)) return false;
+				}
+
+				byte[] swap = previousRow;
+				previousRow = row;
+				row = swap;
+			}
+			return true;
+		}
+		catch (DataFormatException e)
+		{
+			return false;
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Undoes the PNG filter of a row, in place, up to the given index.
+	 * Each byte depends only on those before it and above it, so the rest
+	 * of the row can be left alone.
+	 *
+	 * @return false if the filter type is unknown
+	 */
+	private static boolean unfilter(byte[] row, byte[] previousRow, int end, int bytesPerPixel)
+	{
+		int filterType = row[0];
+		for (int i=1; i<end; i++)
+		{
+			int left = i > bytesPerPixel ? row[i - bytesPerPixel] & 0xff : 0;
+			int above = previousRow[i] & 0xff;
+			int aboveLeft = i > bytesPerPixel ? previousRow[i - bytesPerPixel] & 0xff : 0;
+			int predictor;
+
+			switch (filterType)
+			{
+				case 0: predictor = 0; break;
+				case 1: predictor = left; break;
+				case 2: predictor = above; break;
+				case 3: predictor = (left + above) / 2; break;
+				case 4: predictor = paeth(left, above, aboveLeft); break;
+				default: return false;
+			}
+			row[i] += predictor;
+		}
+		return true;
+	}
+
+	private static int paeth(int left, int above, int aboveLeft)
+	{
+		int p = left + above - aboveLeft;
+		int pLeft = Math.abs(p - left);
+		int pAbove = Math.abs(p - above);
+		int pAboveLeft = Math.abs(p - aboveLeft);
+
+		if (pLeft <= pAbove && pLeft <= pAboveLeft) return left;
+		else if (pAbove <= pAboveLeft) return above;
+		else return aboveLeft;
+	}
+
+	/**
+	 * Reads the rest of a tEXt chunk, after its header, and returns the
+	 * export string if the chunk is intact and its keyword is ours. Only
+	 * the keyword is read from other chunks before skipping the rest.
+	 */
+	private static String readDesignText(DataInputStream in, int type, long length) throws IOException
+	{
+		byte[] keyword = DesignWriter.TEXT_KEYWORD.getBytes(StandardCharsets.ISO_8859_1);
+		int prefixLength = keyword.length + 1;
+		if (length < prefixLength || length > prefixLength + MAXIMUM_DESIGN_LENGTH)
+		{
+			skipFully(in, length + 4);
+			return null;
+		}
+
+		//The keyword, then its null separator
+		byte[] prefix = new byte[prefixLength];
+		in.readFully(prefix);
+		boolean ours = prefix[keyword.length] == 0;
+		for (int i=0; i<keyword.length && ours; i++)
+		{
+			ours = prefix[i] == keyword[i];
+		}
+		if (!ours)
+		{
+			skipFully(in, length - prefixLength + 4);
+			return null;
+		}
+
+		byte[] text = new byte[(int)length - prefixLength];
+		in.readFully(text);
+
+		CRC32 crc = new CRC32();
+		crc.update(type >>> 24);
+		crc.update(type >>> 16);
+		crc.update(type >>> 8);
+		crc.update(type);
+		crc.update(prefix);
+		crc.update(text);
+		if ((int)crc.getValue() != in.readInt()) return null;
+
+		return new String(text, StandardCharsets.ISO_8859_1);
+	}
+
+	private static void skipFully(DataInputStream in, long n) throws IOException
+	{
+		while (n > 0)
+		{
+			long skipped = in.skip(n);
+			if (skipped <= 0)
+			{
+				//skip may stop short without being at the end, so check
+				in.readByte();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	/**
+	 * Reads the export string from the barcode in a design image.
+	 *
+	 * @param file the image saved by the editor
+	 * @return the barcode data string
+	 * @throws IOException if the file couldn't be read
+	 * @throws InvalidBarcodeException if the file isn't an image or has no
+	 *                                 valid barcode
+	 */
+	public static String readBarcode(File file) throws IOException, InvalidBarcodeException
+	{
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		if (in == null) throw new IOException("Unable to read " + file);
+
+		try
+		{
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) throw new InvalidBarcodeException("Not an image");
+
+			ImageReader reader = readers.next();
+			try
+			{
+				//The rows are decoded in order, so nothing past the barcode is needed
+				reader.setInput(in, true, true);
+				int width = reader.getWidth(0);
+				Barcode.checkImageSize(width, reader.getHeight(0));
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(Barcode.getBarcodeRegion(width));
+				BufferedImage bufferedImage = reader.read(0, param);
+
+				return Barcode.extractBarcode(bufferedImage);
+			}
+			finally
+			{
+				reader.dispose();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
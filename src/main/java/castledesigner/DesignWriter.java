@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Saves a design image. The export string goes into the image twice: as
+ * the barcode in the pixels, and as a tEXt chunk that DesignLoader can
+ * read without decoding the image at all.
+ *
+ * @author David Green
+ */
+public final class DesignWriter
+{
+	/**
+	 * The keyword of the tEXt chunk holding the export string.
+	 */
+	static final String TEXT_KEYWORD = "CastleDesign";
+
+	private static final String PNG_METADATA_FORMAT = "javax_imageio_png_1.0";
+
+	private DesignWriter()
+	{
+	}
+
+	/**
+	 * Embeds the export string into the image and saves it as a PNG.
+	 *
+	 * @param bufferedImage the picture of the design
+	 * @param exportString the export string of the design
+	 * @param file the file to save to
+	 * @throws IOException if the file couldn't be written
+	 */
+	public static void write(BufferedImage bufferedImage, String exportString, File file) throws IOException
+	{
+		Barcode.embedBarcode(bufferedImage, exportString);
+
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+		if (!writers.hasNext()) throw new IOException("No PNG writer available");
+
+		ImageWriter writer = writers.next();
+		try (OutputStream out = new FileOutputStream(file); ImageOutputStream imageOut = ImageIO.createImageOutputStream(out))
+		{
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(bufferedImage), param);
+			metadata.mergeTree(PNG_METADATA_FORMAT, createTextTree(exportString));
+
+			writer.setOutput(imageOut);
+			writer.write(null, new IIOImage(bufferedImage, null, metadata), param);
+		}
+		finally
+		{
+			writer.dispose();
+		}
+	}
+
+	private static IIOMetadataNode createTextTree(String exportString)
+	{
+		IIOMetadataNode entry = new IIOMetadataNode("tEXtEntry");
+		entry.setAttribute("keyword", TEXT_KEYWORD);
+		entry.setAttribute("value", exportString);
+
+		IIOMetadataNode text = new IIOMetadataNode("tEXt");
+		text.appendChild(entry);
+
+		IIOMetadataNode root = new IIOMetadataNode(PNG_METADATA_FORMAT);
+		root.appendChild(text);
+		return root;
+	}
+}
@@ -27,7 +27,7 @@ import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.image.BufferedImage;
+import java.awt.event.KeyEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.BufferedReader;
@@ -38,8 +38,6 @@ import java.io.PrintWriter;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
-import javax.swing.BoxLayout;
 import javax.swing.GroupLayout;
 import javax.swing.JButton;
 import javax.swing.JDialog;
@@ -55,10 +53,10 @@ import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
+import javax.swing.KeyStroke;
 import javax.swing.LayoutStyle.ComponentPlacement;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
-import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
@@ -77,7 +75,7 @@ public class Editor
 	private static JFileChooser saveFileChooser;
 	private static JFileChooser openFileChooser;
 	private static File currentFile;
-	private static JPanel errorPanel;
+	private static ErrorPanel errorPanel;
 	private static final String FILE_EXTENSION = "png";
 
 	public static void main( String[] args )
@@ -101,9 +99,10 @@ public class Editor
 
 		TipsPanel tipsPanel = new TipsPanel();
 
-		errorPanel = new JPanel();
-		errorPanel.setBorder(new EmptyBorder(5, 10, 0, 0));
-		errorPanel.setLayout(new BoxLayout(errorPanel, BoxLayout.Y_AXIS));
+		errorPanel = new ErrorPanel();
+		Castle castle = landPanel.getLandGrid().getCastle();
+		castle.addDesignErrorListener(errorPanel);
+		errorPanel.designErrorsChanged(castle.getDesignErrors());
 
 		JPanel rightPanel = new JPanel();
 		GroupLayout layout = new GroupLayout(rightPanel);
@@ -176,11 +175,6 @@ public class Editor
 		frame.setVisible(true);
 	}
 
-	public static JPanel getErrorPanel()
-	{
-		return errorPanel;
-	}
-
 	/**
 	 * Attempts to set the Look and Feel of the application to the native
 	 * platform.
@@ -219,6 +213,7 @@ public class Editor
         	JMenuBar menuBar = new JMenuBar();
 		
 		menuBar.add(createFileMenu());
+		menuBar.add(createEditMenu());
 		menuBar.add(createHelpMenu());
 
 		return menuBar;
@@ -273,8 +268,7 @@ public class Editor
 						String importString = null;
 						if (file.getName().endsWith("." + FILE_EXTENSION))
 						{
-							BufferedImage bufferedImage = ImageIO.read(file);
-							importString = Barcode.extractBarcode(bufferedImage);
+							importString = DesignLoader.readDesign(file);
 						}
 						else
 						{
@@ -360,10 +354,7 @@ public class Editor
 		PrintWriter out = null;
 		try
 		{
-			BufferedImage bufferedImage = landPanel.getDesignImage();
-			Barcode.embedBarcode(bufferedImage, generateExportString());
-
-			ImageIO.write(bufferedImage, "png", file);
+			DesignWriter.write(landPanel.getDesignImage(), generateExportString(), file);
 			currentFile = file;
 		}
 		catch (IOException ex)
@@ -522,6 +513,59 @@ public class Editor
 		return exitMenuItem;
 	}
 
+	/**
+	 * Returns the Edit menu
+	 *
+	 * @return the Edit JMenu
+	 */
+	private static JMenu createEditMenu()
+	{
+		JMenu editMenu = new JMenu("Edit");
+
+		editMenu.add(createUndoMenuItem());
+		editMenu.add(createRedoMenuItem());
+
+		return editMenu;
+	}
+
+	/**
+	 * Returns the menu item to undo the last change to the design.
+	 *
+	 * @return the Undo menu item
+	 */
+	private static JMenuItem createUndoMenuItem()
+	{
+		JMenuItem undoMenuItem = new JMenuItem("Undo");
+		undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+		undoMenuItem.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				landPanel.getLandGrid().getCastle().undo();
+			}
+		});
+		return undoMenuItem;
+	}
+
+	/**
+	 * Returns the menu item to redo the last undone change to the design.
+	 *
+	 * @return the Redo menu item
+	 */
+	private static JMenuItem createRedoMenuItem()
+	{
+		JMenuItem redoMenuItem = new JMenuItem("Redo");
+		redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+		redoMenuItem.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				landPanel.getLandGrid().getCastle().redo();
+			}
+		});
+		return redoMenuItem;
+	}
+
 	/**
 	 * Returns the help menu.
 	 *
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.BoxLayout;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+
+/**
+ * Lists the design errors of a castle in bold red text.
+ *
+ * @author David Green
+ */
+public class ErrorPanel extends JPanel implements DesignErrorListener
+{
+	private Font errorFont;
+
+	public ErrorPanel()
+	{
+		setBorder(new EmptyBorder(5, 10, 0, 0));
+		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+	}
+
+	/**
+	 * May be called from any thread. The panel itself is always updated
+	 * on the event dispatch thread.
+	 */
+	public void designErrorsChanged(List<String> designErrors)
+	{
+		final List<String> errors = new ArrayList<String>(designErrors);
+
+		if (SwingUtilities.isEventDispatchThread()) showErrors(errors);
+		else
+		{
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					showErrors(errors);
+				}
+			});
+		}
+	}
+
+	private void showErrors(List<String> designErrors)
+	{
+		removeAll();
+		for (String designError : designErrors)
+		{
+			JLabel designErrorLabel = new JLabel(designError);
+			if (errorFont == null)
+			{
+				errorFont = designErrorLabel.getFont().deriveFont(Font.BOLD);
+			}
+			designErrorLabel.setForeground(Color.red);
+			designErrorLabel.setFont(errorFont);
+			add(designErrorLabel);
+		}
+		revalidate();
+		repaint();
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.Arrays;
+
+/**
+ * A map from non-negative ints to non-negative ints, held in two arrays
+ * with open addressing so that nothing is boxed or allocated except when
+ * the map grows. Clearing keeps the arrays for reuse.
+ *
+ * @author David Green
+ */
+final class IntIntMap
+{
+	/** Returned by get and remove when the key isn't in the map. */
+	static final int NO_VALUE = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	//Keys are stored plus one, so that zero marks an empty slot
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+
+	IntIntMap()
+	{
+		keys = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+	}
+
+	IntIntMap(IntIntMap map)
+	{
+		keys = map.keys.clone();
+		values = map.values.clone();
+		size = map.size;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	int get(int key)
+	{
+		int mask = keys.length - 1;
+		for (int slot=getSlot(key, mask); keys[slot] != 0; slot=(slot + 1) & mask)
+		{
+			if (keys[slot] == key + 1) return values[slot];
+		}
+		return NO_VALUE;
+	}
+
+	void put(int key, int value)
+	{
+		int mask = keys.length - 1;
+		int slot = getSlot(key, mask);
+		while (keys[slot] != 0)
+		{
+			if (keys[slot] == key + 1)
+			{
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key + 1;
+		values[slot] = value;
+		if (++size * 2 > keys.length) grow();
+	}
+
+	/**
+	 * @return the value that was removed, or NO_VALUE
+	 */
+	int remove(int key)
+	{
+		int mask = keys.length - 1;
+		int slot = getSlot(key, mask);
+		while (keys[slot] != key + 1)
+		{
+			if (keys[slot] == 0) return NO_VALUE;
+			slot = (slot + 1) & mask;
+		}
+		int value = values[slot];
+		size--;
+
+		//Shift back any later entries that would no longer be found
+		int next = (slot + 1) & mask;
+		while (keys[next] != 0)
+		{
+			int home = getSlot(keys[next] - 1, mask);
+			if (((next - home) & mask) >= ((next - slot) & mask))
+			{
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[slot] = 0;
+		return value;
+	}
+
+	void clear()
+	{
+		if (size == 0) return;
+
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of slots, for walking through the entries with
+	 * isUsed, getKey and getValue.
+	 */
+	int getCapacity()
+	{
+		return keys.length;
+	}
+
+	boolean isUsed(int slot)
+	{
+		return keys[slot] != 0;
+	}
+
+	int getKey(int slot)
+	{
+		return keys[slot] - 1;
+	}
+
+	int getValue(int slot)
+	{
+		return values[slot];
+	}
+
+	private void grow()
+	{
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+
+		int mask = keys.length - 1;
+		for (int i=0; i<oldKeys.length; i++)
+		{
+			if (oldKeys[i] != 0)
+			{
+				int slot = getSlot(oldKeys[i] - 1, mask);
+				while (keys[slot] != 0) slot = (slot + 1) & mask;
+
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int getSlot(int key, int mask)
+	{
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+}
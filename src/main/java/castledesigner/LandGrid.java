@@ -56,6 +56,15 @@ public class LandGrid extends JPanel
 
 	public LandGrid()
 	{
+		//Castle tells us once per change (or batch of changes) to the design
+		castle.addDesignListener(new DesignListener()
+		{
+			public void designChanged()
+			{
+				LandGrid.this.repaint();
+				notifyDesignListeners();
+			}
+		});
 		resetGridData();
 
 		this.addMouseMotionListener(new MouseMotionAdapter()
@@ -144,9 +153,6 @@ public class LandGrid extends JPanel
 					}
 				}
 				castle.addBuilding(buildingCoords, selectedBuilding);
-				
-				LandGrid.this.repaint();
-				notifyDesignListeners();
 			}
 		}
 		else if (button == MouseEvent.BUTTON3) //else if right click
@@ -158,8 +164,6 @@ public class LandGrid extends JPanel
 				{
 					castle.removeBuilding(building);
 				}
-				LandGrid.this.repaint();
-				notifyDesignListeners();
 			}
 		}
 	}
@@ -173,19 +177,9 @@ public class LandGrid extends JPanel
 	 */
 	private boolean isValidCoords(int[] coords)
 	{
-		Dimension dimension = selectedBuilding.getDimension();
 		int[] hotspot = selectedBuilding.getHotspot();
-		
-		if (fitsInGrid(coords, dimension, hotspot) &&
-			isBuildable(coords, dimension, hotspot))
-		{
-			if (selectedBuilding.isGapRequired())
-			{
-				return isGapSatisfied(coords, dimension, hotspot);
-			}
-			else return true;
-		}
-		else return false;
+
+		return castle.isPlaceable(selectedBuilding, coords[0] - hotspot[0], coords[1] - hotspot[1]);
 	}
 	
 	private boolean fitsInGrid(int[] coords, Dimension dimension, int[] hotspot)
@@ -196,42 +190,6 @@ public class LandGrid extends JPanel
 			coords[1] - hotspot[1] <= Castle.CASTLE_BOUNDRY_LENGTH - dimension.getHeight());
 	}
 	
-	private boolean isBuildable(int[] coords, Dimension dimension, int[] hotspot)
-	{
-		for (int i=coords[0] - hotspot[0]; i<coords[0] - hotspot[0] + dimension.getWidth(); i++)
-		{
-			for (int j=coords[1] - hotspot[1]; j<coords[1] - hotspot[1] +dimension.getHeight(); j++)
-			{
-				TileBuilding tileBuilding = castle.getGridData(i, j);
-				
-				if (tileBuilding != null &&
-					tileBuilding.getBuildingType() != BuildingType.WOODEN_WALL &&
-					tileBuilding.getBuildingType() != BuildingType.STONE_WALL)
-				{
-					return false;
-				}
-			}
-		}
-		return true;
-	}
-	
-	private boolean isGapSatisfied(int[] coords, Dimension dimension, int[] hotspot)
-	{
-		for (int i=coords[0] - hotspot[0] -1; i<coords[0] - hotspot[0] +dimension.getWidth()+1; i++)
-		{
-			for (int j=coords[1] - hotspot[1] - 1; j<coords[1] - hotspot[1] +dimension.getHeight()+1; j++)
-			{
-				if (i >= 0 && i < Castle.CASTLE_BOUNDRY_LENGTH && j >= 0 && j < Castle.CASTLE_BOUNDRY_LENGTH)
-				{
-					TileBuilding tileBuilding = castle.getGridData(i, j);
-
-					if (tileBuilding != null && tileBuilding.getBuildingType().isGapRequired()) return false;
-				}
-			}
-		}
-		return true;
-	}
-	
 	private int[] getCoords(int ex, int ey)
 	{
 		return new int[] {(int)Math.floor(((double)(ex - gridOffsetX)) / tileWidth),
@@ -252,12 +210,12 @@ public class LandGrid extends JPanel
 		{
 			for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
 			{
-				TileBuilding tileBuilding = castle.getGridData(i, j);
+				BuildingType buildingType = castle.getBuildingType(i, j);
 				
-				if (tileBuilding != null && tileBuilding.getBuildingType().getImage() == null)
+				if (buildingType != null && buildingType.getImage() == null)
 				{
 					//This is unlikely to be called now since everything has an image
-					g.setColor(tileBuilding.getBuildingType().getColour());
+					g.setColor(buildingType.getColour());
 				}
 				else
 				{
@@ -283,14 +241,14 @@ public class LandGrid extends JPanel
 		{
 			for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
 			{
-				TileBuilding tileBuilding = castle.getGridData(i, j);
-				if (tileBuilding != null)
+				BuildingType buildingType = castle.getBuildingType(i, j);
+				if (buildingType != null)
 				{
-					if ((tileBuilding.getBuildingType().getImage() != null) &&
-						!ids.contains(tileBuilding.getBuildingId()))
+					if ((buildingType.getImage() != null) &&
+						!ids.contains(castle.getBuildingId(i, j)))
 					{
-						ids.add(tileBuilding.getBuildingId());
-						g.drawImage(tileBuilding.getBuildingType().getImage(), i*tileWidth+1, j*tileWidth+1, null);
+						ids.add(castle.getBuildingId(i, j));
+						g.drawImage(buildingType.getImage(), i*tileWidth+1, j*tileWidth+1, null);
 					}
 				}
 			}
@@ -319,15 +277,11 @@ public class LandGrid extends JPanel
 	private void resetGridData()
 	{
 		castle.resetGridData();
-		notifyDesignListeners();
 	}
 
 	public void importData(String text) throws UnsupportedVersionException
 	{
 		castle.importData(text);
-		notifyDesignListeners();
-		
-		this.repaint();
 	}
 
 	private void notifyDesignListeners()
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+/**
+ * The categories of tile that Castle keeps an occupancy Bitboard for.
+ *
+ * @author David Green
+ */
+public enum OccupancyLayer
+{
+	/** Tiles that cannot be built over, i.e. anything except walls. */
+	BLOCKING,
+	/** Wooden and stone walls. */
+	WALL,
+	/** Buildings that cannot be placed next to each other. */
+	GAP_REQUIRED;
+
+	/**
+	 * Returns true if tiles of the given building type belong in this
+	 * layer.
+	 *
+	 * @param buildingType the building type of the tile
+	 * @return true if the tile is part of this layer
+	 */
+	public boolean contains(BuildingType buildingType)
+	{
+		boolean wall = buildingType == BuildingType.WOODEN_WALL || buildingType == BuildingType.STONE_WALL;
+
+		switch (this)
+		{
+			case BLOCKING: return !wall;
+			case WALL: return wall;
+			case GAP_REQUIRED: return buildingType.isGapRequired();
+			default: throw new AssertionError(this);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+/**
+ * Answers questions about which tiles of a castle are occupied. Any part
+ * of a rectangle outside the grid is ignored.
+ *
+ * @author David Green
+ */
+public interface OccupancyQuery
+{
+	/**
+	 * Returns the number of occupied tiles in the rectangle.
+	 *
+	 * @param x the left-most column of the rectangle
+	 * @param y the top-most row of the rectangle
+	 * @param width the width of the rectangle (in tiles)
+	 * @param height the height of the rectangle (in tiles)
+	 * @return the number of occupied tiles in the rectangle
+	 */
+	public int count(int x, int y, int width, int height);
+
+	/**
+	 * Returns true if any tile in the rectangle is occupied.
+	 *
+	 * @param x the left-most column of the rectangle
+	 * @param y the top-most row of the rectangle
+	 * @param width the width of the rectangle (in tiles)
+	 * @param height the height of the rectangle (in tiles)
+	 * @return true if at least one tile in the rectangle is occupied
+	 */
+	public boolean intersects(int x, int y, int width, int height);
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A castle that can be read by many threads while another changes it.
+ *
+ * Changes are made one at a time while holding a write lock. Reads don't
+ * take a lock at all: they read optimistically and check afterwards that
+ * no change happened meanwhile, trying again if one did. Only if a read
+ * keeps losing out to changes does it wait for a read lock.
+ *
+ * Listeners added to the shared castle are called by the changing thread
+ * once it has let go of the write lock, so they are free to read the
+ * castle back. By then another change may have been made, so listeners
+ * should read what they need rather than assume what changed.
+ *
+ * @author David Green
+ */
+public final class SharedCastle
+{
+	private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+	private final Castle castle;
+	private final StampedLock lock = new StampedLock();
+	private volatile CastleSnapshot snapshot;
+	private final Set<DesignListener> designListeners = new CopyOnWriteArraySet<DesignListener>();
+	//Set by the castle while the write lock is held, and cleared when it's let go
+	private boolean designChanged = false;
+
+	public SharedCastle()
+	{
+		this(new Castle());
+	}
+
+	/**
+	 * @param castle the castle to share, which must not be used directly
+	 *               from then on
+	 */
+	public SharedCastle(Castle castle)
+	{
+		this.castle = castle;
+		snapshot = castle.snapshot();
+		castle.addDesignListener(new DesignListener()
+		{
+			public void designChanged()
+			{
+				designChanged = true;
+			}
+		});
+	}
+
+	/**
+	 * Makes a change to the castle while holding the write lock. All the
+	 * changes made by the edit are one batch.
+	 */
+	public void edit(CastleEdit castleEdit)
+	{
+		long stamp = lock.writeLock();
+		try
+		{
+			castle.batch(castleEdit);
+		}
+		finally
+		{
+			unlockWrite(stamp);
+		}
+	}
+
+	public void addBuilding(final Set<Point> buildingCoords, final BuildingType buildingType)
+	{
+		edit(new CastleEdit()
+		{
+			public void edit(Castle castle)
+			{
+				castle.addBuilding(buildingCoords, buildingType);
+			}
+		});
+	}
+
+	/**
+	 * Removes the building on the given tile, if there is one.
+	 */
+	public void removeBuilding(final int x, final int y)
+	{
+		edit(new CastleEdit()
+		{
+			public void edit(Castle castle)
+			{
+				TileBuilding building = castle.getGridData(x, y);
+				if (building != null) castle.removeBuilding(building);
+			}
+		});
+	}
+
+	public void setWorldAge(final int worldAge)
+	{
+		edit(new CastleEdit()
+		{
+			public void edit(Castle castle)
+			{
+				castle.setWorldAge(worldAge);
+			}
+		});
+	}
+
+	public void resetGridData()
+	{
+		edit(new CastleEdit()
+		{
+			public void edit(Castle castle)
+			{
+				castle.resetGridData();
+			}
+		});
+	}
+
+	public void importData(CharSequence text) throws UnsupportedVersionException
+	{
+		long stamp = lock.writeLock();
+		try
+		{
+			castle.importData(text);
+		}
+		finally
+		{
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @see Castle#undo()
+	 */
+	public boolean undo()
+	{
+		long stamp = lock.writeLock();
+		try
+		{
+			return castle.undo();
+		}
+		finally
+		{
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @see Castle#redo()
+	 */
+	public boolean redo()
+	{
+		long stamp = lock.writeLock();
+		try
+		{
+			return castle.redo();
+		}
+		finally
+		{
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Notified once for every change to the design, after the write lock
+	 * has been let go.
+	 */
+	public void addDesignListener(DesignListener designListener)
+	{
+		designListeners.add(designListener);
+	}
+
+	public void removeDesignListener(DesignListener designListener)
+	{
+		designListeners.remove(designListener);
+	}
+
+	/**
+	 * Returns a snapshot of the design as of the last change. This never
+	 * waits, so it's the best way to see the whole design at once, e.g. for
+	 * painting it.
+	 */
+	public CastleSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	/**
+	 * @see Castle#getGridData(int, int)
+	 */
+	public TileBuilding getGridData(int x, int y)
+	{
+		return TileBuilding.unpack(readTile(Castle.tileIndex(x, y)));
+	}
+
+	/**
+	 * @see Castle#getBuildingType(int, int)
+	 */
+	public BuildingType getBuildingType(int x, int y)
+	{
+		return TileBuilding.unpackType(readTile(Castle.tileIndex(x, y)));
+	}
+
+	/**
+	 * @see Castle#getBuildingId(int, int)
+	 */
+	public int getBuildingId(int x, int y)
+	{
+		return TileBuilding.unpackId(readTile(Castle.tileIndex(x, y)));
+	}
+
+	private int readTile(int index)
+	{
+		for (int attempt=0; attempt<OPTIMISTIC_ATTEMPTS; attempt++)
+		{
+			long stamp = lock.tryOptimisticRead();
+			int tile = castle.getTile(index);
+			if (lock.validate(stamp)) return tile;
+		}
+
+		long stamp = lock.readLock();
+		try
+		{
+			return castle.getTile(index);
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int getWorldAge()
+	{
+		for (int attempt=0; attempt<OPTIMISTIC_ATTEMPTS; attempt++)
+		{
+			long stamp = lock.tryOptimisticRead();
+			int worldAge = castle.getWorldAge();
+			if (lock.validate(stamp)) return worldAge;
+		}
+
+		long stamp = lock.readLock();
+		try
+		{
+			return castle.getWorldAge();
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @see Castle#getFingerprint()
+	 */
+	public long getFingerprint()
+	{
+		for (int attempt=0; attempt<OPTIMISTIC_ATTEMPTS; attempt++)
+		{
+			long stamp = lock.tryOptimisticRead();
+			long fingerprint = castle.getFingerprint();
+			if (lock.validate(stamp)) return fingerprint;
+		}
+
+		long stamp = lock.readLock();
+		try
+		{
+			return castle.getFingerprint();
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int getNumberOfBuildings(BuildingType buildingType)
+	{
+		for (int attempt=0; attempt<OPTIMISTIC_ATTEMPTS; attempt++)
+		{
+			long stamp = lock.tryOptimisticRead();
+			int numberOfBuildings = castle.getNumberOfBuildings(buildingType);
+			if (lock.validate(stamp)) return numberOfBuildings;
+		}
+
+		long stamp = lock.readLock();
+		try
+		{
+			return castle.getNumberOfBuildings(buildingType);
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int getTotalResource(BuildingResource resource)
+	{
+		for (int attempt=0; attempt<OPTIMISTIC_ATTEMPTS; attempt++)
+		{
+			long stamp = lock.tryOptimisticRead();
+			int totalResource = castle.getTotalResource(resource);
+			if (lock.validate(stamp)) return totalResource;
+		}
+
+		long stamp = lock.readLock();
+		try
+		{
+			return castle.getTotalResource(resource);
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int getTotalBuildingTime()
+	{
+		for (int attempt=0; attempt<OPTIMISTIC_ATTEMPTS; attempt++)
+		{
+			long stamp = lock.tryOptimisticRead();
+			int totalBuildingTime = castle.getTotalBuildingTime();
+			if (lock.validate(stamp)) return totalBuildingTime;
+		}
+
+		long stamp = lock.readLock();
+		try
+		{
+			return castle.getTotalBuildingTime();
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns a copy of the design errors.
+	 */
+	public List<String> getDesignErrors()
+	{
+		for (int attempt=0; attempt<OPTIMISTIC_ATTEMPTS; attempt++)
+		{
+			long stamp = lock.tryOptimisticRead();
+			Object[] designErrors = castle.getDesignErrors().toArray();
+			if (lock.validate(stamp))
+			{
+				List<String> copy = new ArrayList<String>(designErrors.length);
+				for (Object designError : designErrors) copy.add((String)designError);
+				return copy;
+			}
+		}
+
+		long stamp = lock.readLock();
+		try
+		{
+			return new ArrayList<String>(castle.getDesignErrors());
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public String getGridDataExport()
+	{
+		long stamp = lock.readLock();
+		try
+		{
+			return castle.getGridDataExport();
+		}
+		finally
+		{
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Publishes a new snapshot before letting go of the write lock, then
+	 * notifies the listeners if the design changed. StampedLock isn't
+	 * reentrant, so a listener reading the castle while the lock was still
+	 * held would wait forever.
+	 */
+	private void unlockWrite(long stamp)
+	{
+		boolean changed;
+		try
+		{
+			snapshot = castle.snapshot();
+		}
+		finally
+		{
+			changed = designChanged;
+			designChanged = false;
+			lock.unlockWrite(stamp);
+		}
+
+		if (changed)
+		{
+			for (DesignListener designListener : designListeners)
+			{
+				designListener.designChanged();
+			}
+		}
+	}
+}
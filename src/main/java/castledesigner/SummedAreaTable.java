@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+/**
+ * A 2D prefix sum of an occupancy Bitboard. Once built, the number of
+ * occupied tiles in any rectangle is found with four lookups, however
+ * large the rectangle is.
+ *
+ * @author David Green
+ */
+public final class SummedAreaTable implements OccupancyQuery
+{
+	private static final int LENGTH = Castle.CASTLE_BOUNDRY_LENGTH;
+	private static final int STRIDE = LENGTH + 1;
+
+	/*
+	 * sums[x * STRIDE + y] is the number of occupied tiles in the rectangle
+	 * from (0, 0) up to but not including (x, y).
+	 */
+	private final int[] sums = new int[STRIDE * STRIDE];
+
+	SummedAreaTable(Bitboard bitboard)
+	{
+		for (int i=0; i<LENGTH; i++)
+		{
+			int columnSum = 0;
+			for (int j=0; j<LENGTH; j++)
+			{
+				if (bitboard.get(i, j)) columnSum++;
+
+				sums[(i + 1) * STRIDE + j + 1] = sums[i * STRIDE + j + 1] + columnSum;
+			}
+		}
+	}
+
+	public int count(int x, int y, int width, int height)
+	{
+		int fromX = Math.max(x, 0);
+		int toX = Math.min(x + width, LENGTH);
+		int fromY = Math.max(y, 0);
+		int toY = Math.min(y + height, LENGTH);
+
+		if (fromX >= toX || fromY >= toY) return 0;
+
+		return sums[toX * STRIDE + toY] - sums[fromX * STRIDE + toY]
+			- sums[toX * STRIDE + fromY] + sums[fromX * STRIDE + fromY];
+	}
+
+	public boolean intersects(int x, int y, int width, int height)
+	{
+		return count(x, y, width, height) > 0;
+	}
+}
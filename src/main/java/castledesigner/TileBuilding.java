@@ -29,6 +29,17 @@ package castledesigner;
  */
 public class TileBuilding
 {
+	/*
+	 * A tile can also be packed into a single int so that a whole grid fits
+	 * into a primitive array. The low TYPE_BITS hold the building type's
+	 * ordinal + 1 (so that 0 is an empty tile) and the rest hold the id.
+	 */
+	static final int EMPTY = 0;
+	private static final int TYPE_BITS = 6;
+	private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+	static final int MAX_BUILDING_ID = -1 >>> TYPE_BITS;
+	private static final BuildingType[] buildingTypes = BuildingType.values();
+
 	private int buildingId;
 	private final BuildingType buildingType;
 	
@@ -52,4 +63,50 @@ public class TileBuilding
 	{
 		this.buildingId = id;
 	}
+
+	/**
+	 * Packs a building type and id into a single int.
+	 *
+	 * @param buildingType the type of building on the tile
+	 * @param buildingId the id shared by all tiles of the building
+	 * @return the packed tile
+	 */
+	static int pack(BuildingType buildingType, int buildingId)
+	{
+		if (buildingId < 0 || buildingId > MAX_BUILDING_ID) throw new IllegalArgumentException("Invalid building id: " + buildingId);
+
+		return (buildingId << TYPE_BITS) | (buildingType.ordinal() + 1);
+	}
+
+	/**
+	 * Returns the building type ordinal of a packed tile, or -1 if the
+	 * tile is empty.
+	 */
+	static int unpackOrdinal(int tile)
+	{
+		return (tile & TYPE_MASK) - 1;
+	}
+
+	/**
+	 * Returns the building type of a packed tile, or null if the tile is
+	 * empty.
+	 */
+	static BuildingType unpackType(int tile)
+	{
+		return tile == EMPTY ? null : buildingTypes[unpackOrdinal(tile)];
+	}
+
+	static int unpackId(int tile)
+	{
+		return tile >>> TYPE_BITS;
+	}
+
+	/**
+	 * Returns a TileBuilding view of a packed tile, or null if the tile is
+	 * empty. The view is a copy, so changing it does not change the tile.
+	 */
+	static TileBuilding unpack(int tile)
+	{
+		return tile == EMPTY ? null : new TileBuilding(unpackType(tile), unpackId(tile));
+	}
 }
\ No newline at end of file
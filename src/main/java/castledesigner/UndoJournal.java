@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2013 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+/**
+ * Records changes to a castle as compact deltas so they can be undone and
+ * redone. Each step is a list of (tile index, previous value, new value)
+ * triples held in a ring buffer of ints, with the number of triples at
+ * both ends of the step so it can be walked in either direction:
+ *
+ *   count, index, before, after, index, before, after, ..., count
+ *
+ * When the buffer is full the oldest steps are forgotten. The buffer is
+ * only allocated when the first change is recorded, and then grows as
+ * needed up to the byte limit.
+ *
+ * @author David Green
+ */
+final class UndoJournal
+{
+	/** The index used for a change to the world age rather than a tile. */
+	static final int WORLD_AGE = -1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int[] EMPTY_BUFFER = new int[0];
+
+	/**
+	 * Receives the values to be restored by undo or redo.
+	 */
+	interface Replay
+	{
+		void restore(int index, int value);
+	}
+
+	private final int maximumCapacity;
+	private int[] buffer = EMPTY_BUFFER;
+
+	/*
+	 * Positions only ever increase and are wrapped into the buffer when
+	 * used. Steps before cursor can be undone and steps between cursor and
+	 * top can be redone. stepStart is -1 unless a step is being recorded.
+	 */
+	private long start = 0;
+	private long cursor = 0;
+	private long top = 0;
+	private long stepStart = -1;
+	private int stepCount = 0;
+	private boolean stepOverflowed = false;
+
+	/**
+	 * @param limit the most memory, in bytes, the journal may use
+	 */
+	UndoJournal(int limit)
+	{
+		maximumCapacity = limit / 4;
+	}
+
+	int getLimit()
+	{
+		return maximumCapacity * 4;
+	}
+
+	/**
+	 * Records a change, starting a new step if one isn't already started.
+	 * Anything that could have been redone is forgotten.
+	 */
+	void record(int index, int before, int after)
+	{
+		if (stepStart < 0)
+		{
+			stepStart = cursor;
+			stepCount = 0;
+			stepOverflowed = false;
+			top = cursor;
+			if (!makeRoom(1)) return;
+			cursor++;
+		}
+		if (stepOverflowed || !makeRoom(4)) return;
+
+		put(cursor++, index);
+		put(cursor++, before);
+		put(cursor++, after);
+		stepCount++;
+	}
+
+	/**
+	 * Finishes the step being recorded, if any.
+	 */
+	void endStep()
+	{
+		if (stepStart < 0) return;
+
+		if (stepOverflowed)
+		{
+			//Too big to ever fit, so nothing before it can be undone either
+			start = cursor = top = stepStart;
+		}
+		else if (stepCount == 0)
+		{
+			cursor = top = stepStart;
+		}
+		else
+		{
+			put(stepStart, stepCount);
+			put(cursor++, stepCount);
+			top = cursor;
+		}
+		stepStart = -1;
+	}
+
+	/**
+	 * Forgets everything.
+	 */
+	void clear()
+	{
+		start = cursor = top = 0;
+		stepStart = -1;
+	}
+
+	boolean canUndo()
+	{
+		return cursor > start;
+	}
+
+	boolean canRedo()
+	{
+		return cursor < top;
+	}
+
+	/**
+	 * Passes the previous values of the latest step to the replay, latest
+	 * change first.
+	 *
+	 * @return false if there was nothing to undo
+	 */
+	boolean undo(Replay replay)
+	{
+		if (stepStart >= 0) throw new IllegalStateException("A step is being recorded");
+		if (!canUndo()) return false;
+
+		int count = get(cursor - 1);
+		long position = cursor - 1 - 3;
+		for (int i=0; i<count; i++)
+		{
+			replay.restore(get(position), get(position + 1));
+			position -= 3;
+		}
+		cursor -= 3 * count + 2;
+		return true;
+	}
+
+	/**
+	 * Passes the new values of the next undone step to the replay, in the
+	 * order they were first made.
+	 *
+	 * @return false if there was nothing to redo
+	 */
+	boolean redo(Replay replay)
+	{
+		if (stepStart >= 0) throw new IllegalStateException("A step is being recorded");
+		if (!canRedo()) return false;
+
+		int count = get(cursor);
+		long position = cursor + 1;
+		for (int i=0; i<count; i++)
+		{
+			replay.restore(get(position), get(position + 2));
+			position += 3;
+		}
+		cursor += 3 * count + 2;
+		return true;
+	}
+
+	/**
+	 * Returns the number of bytes currently held in the buffer.
+	 */
+	int getMemoryUsed()
+	{
+		return buffer.length * 4;
+	}
+
+	/**
+	 * Makes sure the current step can grow by the given number of ints,
+	 * growing the buffer or forgetting the oldest steps as needed.
+	 *
+	 * @return false if the current step can never fit
+	 */
+	private boolean makeRoom(int size)
+	{
+		while (cursor + size - start > buffer.length)
+		{
+			if (buffer.length < maximumCapacity)
+			{
+				grow();
+			}
+			else if (start < stepStart)
+			{
+				start += 3 * get(start) + 2;
+			}
+			else
+			{
+				stepOverflowed = true;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow()
+	{
+		long capacity = buffer.length == 0 ? INITIAL_CAPACITY : buffer.length * 2L;
+		int[] newBuffer = new int[(int)Math.min(capacity, maximumCapacity)];
+
+		for (long position=start; position<Math.max(cursor, top); position++)
+		{
+			newBuffer[(int)(position % newBuffer.length)] = get(position);
+		}
+		buffer = newBuffer;
+	}
+
+	private int get(long position)
+	{
+		return buffer[(int)(position % buffer.length)];
+	}
+
+	private void put(long position, int value)
+	{
+		buffer[(int)(position % buffer.length)] = value;
+	}
+}
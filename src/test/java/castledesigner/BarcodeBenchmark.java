@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import javax.imageio.ImageIO;
+
+/**
+ * Compares reading and writing the barcode a pixel at a time against the
+ * bulk raster access in Barcode, using the test designs' images as loaded,
+ * converted to TYPE_INT_ARGB, and converted to a type that falls back to
+ * the bulk getRGB and setRGB. Not run as part of the tests; run
+ * the main method by hand.
+ *
+ * @author David Green
+ */
+public class BarcodeBenchmark
+{
+	private static final int WARMUP_ITERATIONS = 2000;
+	private static final int ITERATIONS = 10000;
+
+	public static void main(String[] args) throws Exception
+	{
+		for (File file : LayoutUtils.getImageFiles())
+		{
+			BufferedImage loaded = ImageIO.read(file);
+
+			report(file.getName() + " (as loaded, type " + loaded.getType() + ")", loaded);
+			report(file.getName() + " (int argb)", convert(loaded, BufferedImage.TYPE_INT_ARGB));
+			report(file.getName() + " (int argb pre, getRGB fallback)", convert(loaded, BufferedImage.TYPE_INT_ARGB_PRE));
+			reportDense(file.getName() + " (as loaded)", loaded);
+		}
+	}
+
+	/**
+	 * Compares the character per pixel layout against the dense one.
+	 */
+	private static void reportDense(String name, BufferedImage bufferedImage) throws InvalidBarcodeException
+	{
+		String barcode = Barcode.extractBarcode(bufferedImage);
+		double[] times = new double[2];
+		for (int dense=0; dense<2; dense++)
+		{
+			for (int i=0; i<WARMUP_ITERATIONS; i++)
+			{
+				Barcode.embedBarcode(bufferedImage, barcode, dense == 1);
+				Barcode.extractBarcode(bufferedImage);
+			}
+
+			long timeBefore = System.nanoTime();
+			for (int i=0; i<ITERATIONS; i++)
+			{
+				Barcode.embedBarcode(bufferedImage, barcode, dense == 1);
+				Barcode.extractBarcode(bufferedImage);
+			}
+			times[dense] = (System.nanoTime() - timeBefore) / 1000.0 / ITERATIONS;
+		}
+		Barcode.embedBarcode(bufferedImage, barcode);
+
+		System.out.printf("%s: %d columns and %.1f us to embed and extract, dense %d columns and %.1f us%n", name,
+			(barcode.length() + 14) / 14, times[0], (2 + (barcode.length() + 3) / 4 + 13) / 14, times[1]);
+	}
+
+	private static BufferedImage convert(BufferedImage bufferedImage, int type)
+	{
+		BufferedImage converted = new BufferedImage(bufferedImage.getWidth(), bufferedImage.getHeight(), type);
+		Graphics2D g = converted.createGraphics();
+		g.drawImage(bufferedImage, 0, 0, null);
+		g.dispose();
+		return converted;
+	}
+
+	private static void report(String name, BufferedImage bufferedImage) throws InvalidBarcodeException
+	{
+		String barcode = Barcode.extractBarcode(bufferedImage);
+		if (!barcode.equals(extractPerPixel(bufferedImage))) throw new IllegalStateException("Paths disagree on " + name);
+
+		for (int i=0; i<WARMUP_ITERATIONS; i++)
+		{
+			extractPerPixel(bufferedImage);
+			Barcode.extractBarcode(bufferedImage);
+			embedPerPixel(bufferedImage, barcode);
+			Barcode.embedBarcode(bufferedImage, barcode);
+		}
+
+		long timeBefore = System.nanoTime();
+		for (int i=0; i<ITERATIONS; i++) extractPerPixel(bufferedImage);
+		long perPixelExtract = System.nanoTime() - timeBefore;
+
+		timeBefore = System.nanoTime();
+		for (int i=0; i<ITERATIONS; i++) Barcode.extractBarcode(bufferedImage);
+		long bulkExtract = System.nanoTime() - timeBefore;
+
+		timeBefore = System.nanoTime();
+		for (int i=0; i<ITERATIONS; i++) embedPerPixel(bufferedImage, barcode);
+		long perPixelEmbed = System.nanoTime() - timeBefore;
+
+		timeBefore = System.nanoTime();
+		for (int i=0; i<ITERATIONS; i++) Barcode.embedBarcode(bufferedImage, barcode);
+		long bulkEmbed = System.nanoTime() - timeBefore;
+
+		System.out.printf("%s: extract %.1f us per pixel, %.1f us bulk; embed %.1f us per pixel, %.1f us bulk%n",
+			name, perPixelExtract / 1000.0 / ITERATIONS, bulkExtract / 1000.0 / ITERATIONS,
+			perPixelEmbed / 1000.0 / ITERATIONS, bulkEmbed / 1000.0 / ITERATIONS);
+	}
+
+	/*
+	 * The strip layout of Barcode, read and written with getRGB and setRGB
+	 * one pixel at a time as it used to be.
+	 */
+	private static String extractPerPixel(BufferedImage bufferedImage)
+	{
+		StringBuilder s = new StringBuilder();
+		int x = 50;
+		int y = 2;
+		int rgb = bufferedImage.getRGB(x, y);
+		while ((rgb & 0xfff) != 255 << 4)
+		{
+			int code = rgb & 0xfff;
+			s.append(code == 254 << 4 ? 'Z' : Converter.intToAlphaNumeric(code >> 4));
+			if (++y > 15)
+			{
+				y = 2;
+				x++;
+			}
+			rgb = bufferedImage.getRGB(x, y);
+		}
+		return s.toString();
+	}
+
+	private static void embedPerPixel(BufferedImage bufferedImage, String barcode)
+	{
+		int x = 50;
+		int y = 2;
+		for (int i=0; i<barcode.length(); i++)
+		{
+			char c = barcode.charAt(i);
+			int code = c == 'Z' ? 254 << 4 : Converter.alphaNumericToInt(c) << 4;
+			bufferedImage.setRGB(x, y, 0xff000000 | code);
+			if (++y > 15)
+			{
+				y = 2;
+				x++;
+			}
+		}
+		bufferedImage.setRGB(x, y, 0xff000000 | 255 << 4);
+		for (int j=y+1; j<=15; j++) bufferedImage.setRGB(x, j, 0xff000000);
+		for (int i=49; i<=x+1; i++)
+		{
+			bufferedImage.setRGB(i, 1, 0xff660066);
+			bufferedImage.setRGB(i, 16, 0xff660066);
+		}
+		for (int j=2; j<=15; j++)
+		{
+			bufferedImage.setRGB(49, j, 0xff660066);
+			bufferedImage.setRGB(x+1, j, 0xff660066);
+		}
+	}
+}
@@ -25,6 +25,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 import javax.imageio.ImageIO;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -101,6 +103,137 @@ public class BarcodeTest
 		embedBarcodeTo(bufferedImage);
 	}
 
+	@Test
+	public void testEmbedBarcodeRGB()
+	{
+		BufferedImage bufferedImage = new BufferedImage(650, 17, BufferedImage.TYPE_INT_RGB);
+		embedBarcodeTo(bufferedImage);
+	}
+
+	@Test
+	public void testEmbedBarcode3ByteBGR()
+	{
+		BufferedImage bufferedImage = new BufferedImage(650, 17, BufferedImage.TYPE_3BYTE_BGR);
+		embedBarcodeTo(bufferedImage);
+	}
+
+	@Test
+	public void testEmbedBarcodeARGBPre()
+	{
+		BufferedImage bufferedImage = new BufferedImage(650, 17, BufferedImage.TYPE_INT_ARGB_PRE);
+		embedBarcodeTo(bufferedImage);
+	}
+
+	/**
+	 * Images with int or byte pixels are written directly through their
+	 * data buffer, the rest through setRGB, and the pixels should come out
+	 * the same either way.
+	 */
+	@Test
+	public void testEmbedBarcodeSamePixels() throws Exception
+	{
+		String data = LayoutUtils.getImportString("everything_v3");
+		BufferedImage expected = new BufferedImage(700, 20, BufferedImage.TYPE_INT_ARGB_PRE);
+		Barcode.embedBarcode(expected, data);
+
+		//Only the strip itself, as untouched pixels differ in alpha between types
+		int width = data.length() / 14 + 3;
+		int[] types = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR};
+		for (int type : types)
+		{
+			BufferedImage bufferedImage = new BufferedImage(700, 20, type);
+			Barcode.embedBarcode(bufferedImage, data);
+
+			assertArrayEquals("Type " + type, expected.getRGB(49, 1, width, 16, null, 0, width), bufferedImage.getRGB(49, 1, width, 16, null, 0, width));
+		}
+	}
+
+	/**
+	 * Too long for a character per pixel, so it should be packed densely
+	 * and still read back.
+	 */
+	@Test
+	public void testEmbedBarcodeDense() throws InvalidBarcodeException
+	{
+		Random random = new Random(24);
+		char[] data = new char[14 * 1000];
+		for (int i=0; i<data.length; i++)
+		{
+			data[i] = random.nextInt(62) == 61 ? 'Z' : Converter.intToAlphaNumeric(random.nextInt(61));
+		}
+
+		for (int length : new int[] {data.length, data.length - 1, data.length - 2, data.length - 3})
+		{
+			String barcode = new String(data, 0, length);
+			BufferedImage bufferedImage = new BufferedImage(650, 17, BufferedImage.TYPE_4BYTE_ABGR);
+			Barcode.embedBarcode(bufferedImage, barcode);
+
+			assertEquals(barcode, Barcode.extractBarcode(bufferedImage));
+		}
+	}
+
+	@Test
+	public void testEmbedBarcodeDenseOnlyWhenNeeded() throws Exception
+	{
+		String data = LayoutUtils.getImportString("typical");
+		BufferedImage bufferedImage = new BufferedImage(650, 17, BufferedImage.TYPE_INT_ARGB);
+		Barcode.embedBarcode(bufferedImage, data);
+		int legacyColumns = getStripWidth(bufferedImage);
+
+		Barcode.embedBarcode(bufferedImage, data, true);
+		assertTrue(getStripWidth(bufferedImage) < legacyColumns);
+		assertEquals(data, Barcode.extractBarcode(bufferedImage));
+
+		Barcode.embedBarcode(bufferedImage, data);
+		assertEquals(legacyColumns, getStripWidth(bufferedImage));
+		assertEquals(data, Barcode.extractBarcode(bufferedImage));
+	}
+
+	/**
+	 * Returns the number of columns up to the border on the right.
+	 */
+	private int getStripWidth(BufferedImage bufferedImage)
+	{
+		int x = 50;
+		while (bufferedImage.getRGB(x, 2) != 0xff660066) x++;
+		return x - 50;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmbedBarcodeTooLong()
+	{
+		char[] data = new char[4 * 14 * 600];
+		Arrays.fill(data, '0');
+		Barcode.embedBarcode(new BufferedImage(650, 17, BufferedImage.TYPE_INT_ARGB), new String(data));
+	}
+
+	@Test(expected = InvalidBarcodeException.class)
+	public void testExtractBarcodeDenseBadData() throws InvalidBarcodeException
+	{
+		BufferedImage bufferedImage = new BufferedImage(650, 17, BufferedImage.TYPE_INT_ARGB);
+		Barcode.embedBarcode(bufferedImage, "abcdefgh", true);
+		//The highest symbols aren't characters
+		bufferedImage.setRGB(50, 4, 0xffffffff);
+
+		Barcode.extractBarcode(bufferedImage);
+	}
+
+	@Test(expected = InvalidBarcodeException.class)
+	public void testExtractBarcodeDenseTooLong() throws InvalidBarcodeException
+	{
+		BufferedImage bufferedImage = new BufferedImage(650, 17, BufferedImage.TYPE_INT_ARGB);
+		Barcode.embedBarcode(bufferedImage, "abcdefgh", true);
+		bufferedImage.setRGB(50, 3, 0xffffffff);
+
+		Barcode.extractBarcode(bufferedImage);
+	}
+
+	@Test(expected = InvalidBarcodeException.class)
+	public void testExtractBarcodeNoEnd() throws InvalidBarcodeException
+	{
+		Barcode.extractBarcode(new BufferedImage(650, 17, BufferedImage.TYPE_INT_ARGB));
+	}
+
 	private void embedBarcodeTo(BufferedImage bufferedImage)
 	{
 		for (File file : LayoutUtils.getTextFiles())
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class Base62Test
+{
+	@Test
+	public void testRoundTrip()
+	{
+		Random random = new Random(3);
+		for (int length=0; length<40; length++)
+		{
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			if (length > 0) bytes[0] = (byte)0xff;
+
+			StringBuilder text = new StringBuilder();
+			Base62.encode(bytes, length, text);
+			assertEquals(length, Base62.getDecodedLength(text.length()));
+			for (int i=0; i<text.length(); i++)
+			{
+				assertTrue(Character.isLetterOrDigit(text.charAt(i)));
+			}
+
+			byte[] decoded = new byte[length];
+			Base62.decode(text, 0, text.length(), decoded);
+			assertArrayEquals(bytes, decoded);
+		}
+	}
+
+	@Test
+	public void testBlockLengths()
+	{
+		StringBuilder text = new StringBuilder();
+		Base62.encode(new byte[] {-1, -1, -1, -1, -1, -1, -1}, 7, text);
+		assertEquals(7 + 3, text.length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadLength()
+	{
+		Base62.getDecodedLength(8);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadCharacter()
+	{
+		Base62.decode("ab+", 0, 3, new byte[2]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValueTooBig()
+	{
+		//Two characters hold 3843, too much for a single byte
+		Base62.decode("ZZ", 0, 2, new byte[1]);
+	}
+}
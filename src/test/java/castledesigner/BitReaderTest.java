@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class BitReaderTest
+{
+	@Test
+	public void testReadWhatWasWritten()
+	{
+		BitWriter writer = new BitWriter();
+		for (int i=0; i<1000; i++)
+		{
+			writer.write(i % 64, 6);
+			writer.write(i % 2, 1);
+			writer.writeVarint(i * 37);
+		}
+		writer.write(0xfffffffffffffL, 52);
+
+		BitReader reader = new BitReader(writer.getBytes(), writer.getLength());
+		for (int i=0; i<1000; i++)
+		{
+			assertEquals(i % 64, reader.readInt(6));
+			assertEquals(i % 2, reader.read(1));
+			assertEquals(i * 37, reader.readVarint());
+		}
+		assertEquals(0xfffffffffffffL, reader.read(52));
+	}
+
+	@Test
+	public void testVarintLength()
+	{
+		for (int value : new int[] {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE})
+		{
+			BitWriter writer = new BitWriter();
+			writer.writeVarint(value);
+			assertEquals(BitWriter.getVarintLength(value), writer.getLength() * 8);
+			assertEquals(value, new BitReader(writer.getBytes(), writer.getLength()).readVarint());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadPastEnd()
+	{
+		BitWriter writer = new BitWriter();
+		writer.write(5, 3);
+
+		BitReader reader = new BitReader(writer.getBytes(), writer.getLength());
+		reader.read(8);
+		reader.read(1);
+	}
+}
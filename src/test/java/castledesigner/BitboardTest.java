@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class BitboardTest
+{
+	private static final int LENGTH = Castle.CASTLE_BOUNDRY_LENGTH;
+
+	@Test
+	public void testSetAndClear()
+	{
+		Bitboard instance = new Bitboard();
+
+		for (int i=0; i<LENGTH; i++)
+		{
+			for (int j=0; j<LENGTH; j++)
+			{
+				assertFalse(instance.get(i, j));
+				instance.set(Castle.tileIndex(i, j));
+				assertTrue(instance.get(i, j));
+			}
+		}
+		assertEquals(LENGTH * LENGTH, instance.cardinality());
+
+		instance.clear(Castle.tileIndex(51, 51));
+		assertFalse(instance.get(51, 51));
+		assertEquals(LENGTH * LENGTH - 1, instance.cardinality());
+
+		instance.clearAll();
+		assertEquals(0, instance.cardinality());
+	}
+
+	@Test
+	public void testIntersectsAndCount()
+	{
+		Random random = new Random(42);
+
+		for (int round=0; round<20; round++)
+		{
+			boolean[][] tiles = new boolean[LENGTH][LENGTH];
+			Bitboard instance = new Bitboard();
+
+			for (int i=0; i<LENGTH; i++)
+			{
+				for (int j=0; j<LENGTH; j++)
+				{
+					if (random.nextInt(40) == 0)
+					{
+						tiles[i][j] = true;
+						instance.set(Castle.tileIndex(i, j));
+					}
+				}
+			}
+
+			for (int check=0; check<2000; check++)
+			{
+				int x = random.nextInt(LENGTH + 4) - 2;
+				int y = random.nextInt(LENGTH + 4) - 2;
+				int width = random.nextInt(8) + 1;
+				int height = random.nextInt(8) + 1;
+
+				int expected = 0;
+				for (int i=Math.max(x, 0); i<Math.min(x + width, LENGTH); i++)
+				{
+					for (int j=Math.max(y, 0); j<Math.min(y + height, LENGTH); j++)
+					{
+						if (tiles[i][j]) expected++;
+					}
+				}
+				assertEquals(expected, instance.count(x, y, width, height));
+				assertEquals(expected > 0, instance.intersects(x, y, width, height));
+			}
+		}
+	}
+
+	@Test
+	public void testToLongArray()
+	{
+		Bitboard instance = new Bitboard();
+		instance.set(Castle.tileIndex(1, 10));
+
+		long[] words = instance.toLongArray();
+		assertEquals(43, words.length);
+		assertEquals(1L << (LENGTH + 10), words[0]);
+
+		//The array is a copy
+		words[0] = 0;
+		assertTrue(instance.get(1, 10));
+	}
+}
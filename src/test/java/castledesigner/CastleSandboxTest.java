@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class CastleSandboxTest
+{
+	/**
+	 * Makes the same random changes to a sandbox and to a copy of the
+	 * castle, and checks they always agree.
+	 */
+	@Test
+	public void testMatchesCopy() throws Exception
+	{
+		Random random = new Random(3);
+
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle castle = new Castle();
+			castle.importData(importString);
+			String exportString = castle.getGridDataExport();
+
+			CastleSandbox instance = castle.sandbox();
+			Castle copy = castle.copy();
+
+			for (int change=0; change<200; change++)
+			{
+				int x = random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH);
+				int y = random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH);
+
+				if (random.nextBoolean())
+				{
+					BuildingType buildingType = BuildingType.values()[random.nextInt(BuildingType.values().length)];
+					Set<Point> buildingCoords = getBuildingCoords(buildingType, x, y);
+
+					instance.addBuilding(buildingCoords, buildingType);
+					copy.addBuilding(buildingCoords, buildingType);
+				}
+				else
+				{
+					instance.removeBuilding(x, y);
+					TileBuilding tileBuilding = copy.getGridData(x, y);
+					if (tileBuilding != null) copy.removeBuilding(tileBuilding);
+				}
+				assertSameDesign(copy, instance);
+			}
+
+			//The castle itself is untouched
+			assertEquals(exportString, castle.getGridDataExport());
+
+			instance.reset();
+			assertFalse(instance.isChanged());
+			assertSameDesign(castle, instance);
+		}
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testCastleChanged()
+	{
+		Castle castle = new Castle();
+		CastleSandbox instance = castle.sandbox();
+
+		castle.setWorldAge(3);
+		instance.addBuilding(getBuildingCoords(BuildingType.MOAT, 0, 0), BuildingType.MOAT);
+	}
+
+	@Test
+	public void testResetAfterCastleChanged()
+	{
+		Castle castle = new Castle();
+		CastleSandbox instance = castle.sandbox();
+		castle.addBuilding(getBuildingCoords(BuildingType.SMELTER, 0, 0), BuildingType.SMELTER);
+
+		instance.reset();
+		assertEquals(1, instance.getNumberOfBuildings(BuildingType.SMELTER));
+		assertEquals(castle.getTotalResource(BuildingResource.IRON), instance.getTotalResource(BuildingResource.IRON));
+	}
+
+	private static Set<Point> getBuildingCoords(BuildingType buildingType, int x, int y)
+	{
+		Dimension dimension = buildingType.getDimension();
+		Set<Point> buildingCoords = new HashSet<>();
+
+		for (int i=x; i<Math.min(x + dimension.width, Castle.CASTLE_BOUNDRY_LENGTH); i++)
+		{
+			for (int j=y; j<Math.min(y + dimension.height, Castle.CASTLE_BOUNDRY_LENGTH); j++)
+			{
+				buildingCoords.add(new Point(i, j));
+			}
+		}
+		return buildingCoords;
+	}
+
+	private static void assertSameDesign(Castle castle, CastleSandbox sandbox)
+	{
+		for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+		{
+			for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+			{
+				assertEquals(castle.getBuildingType(i, j), sandbox.getBuildingType(i, j));
+				assertEquals(castle.getBuildingType(i, j) == null, sandbox.getGridData(i, j) == null);
+			}
+		}
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			assertEquals(castle.getNumberOfBuildings(buildingType), sandbox.getNumberOfBuildings(buildingType));
+
+			for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i+=5)
+			{
+				for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j+=5)
+				{
+					assertEquals(castle.isPlaceable(buildingType, i, j), sandbox.isPlaceable(buildingType, i, j));
+				}
+			}
+		}
+		for (BuildingResource buildingResource : BuildingResource.values())
+		{
+			assertEquals(castle.getTotalResource(buildingResource), sandbox.getTotalResource(buildingResource));
+		}
+		assertEquals(castle.getTotalBuildingTime(), sandbox.getTotalBuildingTime());
+		assertEquals(castle.getDesignErrors(), sandbox.getDesignErrors());
+		assertEquals(castle.getFingerprint(), sandbox.getFingerprint());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Point;
+import java.util.Collections;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class CastleSnapshotTest
+{
+	@Test
+	public void testSnapshotMatchesCastle() throws Exception
+	{
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle castle = new Castle();
+			castle.importData(importString);
+			CastleSnapshot instance = castle.snapshot();
+
+			for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+			{
+				for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+				{
+					assertEquals(castle.getBuildingType(i, j), instance.getBuildingType(i, j));
+					assertEquals(castle.getBuildingId(i, j), instance.getBuildingId(i, j));
+				}
+			}
+			assertEquals(castle.getWorldAge(), instance.getWorldAge());
+			assertEquals(castle.getFingerprint(), instance.getFingerprint());
+			assertEquals(castle.getDesignErrors(), instance.getDesignErrors());
+			assertEquals(castle.getTotalBuildingTime(), instance.getTotalBuildingTime());
+			for (BuildingType buildingType : BuildingType.values())
+			{
+				assertEquals(castle.getNumberOfBuildings(buildingType), instance.getNumberOfBuildings(buildingType));
+			}
+			for (BuildingResource buildingResource : BuildingResource.values())
+			{
+				assertEquals(castle.getTotalResource(buildingResource), instance.getTotalResource(buildingResource));
+			}
+
+			Castle copy = instance.toCastle();
+			assertEquals(castle.getGridDataExport(), copy.getGridDataExport());
+			copy.verifyDesignStats();
+			copy.verifyBuildingIndex();
+		}
+	}
+
+	@Test
+	public void testSnapshotSharesUnchangedColumns()
+	{
+		Castle castle = new Castle();
+		CastleSnapshot first = castle.snapshot();
+		assertSame(first, castle.snapshot());
+
+		castle.addBuilding(Collections.singleton(new Point(5, 7)), BuildingType.MOAT);
+		CastleSnapshot second = castle.snapshot();
+		assertNotSame(first, second);
+
+		for (int x=0; x<Castle.CASTLE_BOUNDRY_LENGTH; x++)
+		{
+			if (x == 5) assertNotSame(first.getColumn(x), second.getColumn(x));
+			else assertSame(first.getColumn(x), second.getColumn(x));
+		}
+
+		//The earlier snapshot doesn't change
+		assertNull(first.getGridData(5, 7));
+		assertEquals(BuildingType.MOAT, second.getBuildingType(5, 7));
+
+		castle.setWorldAge(2);
+		CastleSnapshot third = castle.snapshot();
+		assertEquals(1, second.getWorldAge());
+		assertEquals(2, third.getWorldAge());
+		assertSame(second.getColumn(5), third.getColumn(5));
+	}
+
+	@Test
+	public void testSnapshotAfterUndo()
+	{
+		Castle castle = new Castle();
+		CastleSnapshot first = castle.snapshot();
+		castle.addBuilding(Collections.singleton(new Point(30, 1)), BuildingType.MOAT);
+		castle.snapshot();
+		castle.undo();
+
+		CastleSnapshot third = castle.snapshot();
+		assertNull(third.getGridData(30, 1));
+		assertEquals(first.getFingerprint(), third.getFingerprint());
+	}
+
+	@Test
+	public void testSnapshotDesignErrorsUnmodifiable() throws Exception
+	{
+		Castle castle = new Castle();
+		try
+		{
+			castle.snapshot().getDesignErrors().add("error");
+			fail();
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+	}
+}
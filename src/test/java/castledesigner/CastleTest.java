@@ -20,9 +20,21 @@
  */
 package castledesigner;
 
+import java.awt.Dimension;
 import java.awt.Point;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -61,6 +73,37 @@ public class CastleTest
 		instance.getGridData(Castle.CASTLE_BOUNDRY_LENGTH, 1);
 	}
 
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testGetGridDataWithInvalidY()
+	{
+		Castle instance = new Castle();
+		instance.getGridData(0, Castle.CASTLE_BOUNDRY_LENGTH);
+	}
+
+	@Test
+	public void testGetBuildingTypeAndId() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.importData(LayoutUtils.getImportString("everything_v3"));
+
+		for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+		{
+			for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+			{
+				TileBuilding tileBuilding = instance.getGridData(i, j);
+				if (tileBuilding == null)
+				{
+					assertNull(instance.getBuildingType(i, j));
+				}
+				else
+				{
+					assertEquals(tileBuilding.getBuildingType(), instance.getBuildingType(i, j));
+					assertEquals(tileBuilding.getBuildingId(), instance.getBuildingId(i, j));
+				}
+			}
+		}
+	}
+
 	@Test
 	public void testRemoveBuilding() throws Exception
 	{
@@ -168,6 +211,228 @@ public class CastleTest
 		if (suitableTestFound == false) fail("No designs found that use the new export version ID");
 	}
 
+	@Test
+	public void testImportDataSkipsUnknownBuildings() throws Exception
+	{
+		Castle instance = new Castle();
+
+		//An unknown building type, and a small tower hanging off the edge
+		instance.importData("3ab" + "ZZ" + "Y00" + Converter.intToAlphaNumeric(BuildingType.SMALL_TOWER.ordinal()) + "PP" + "1cd" + "ZefZZ2");
+
+		assertEquals(BuildingType.WOODEN_WALL, instance.getBuildingType(10, 11));
+		assertEquals(BuildingType.WOODEN_GATEHOUSE, instance.getBuildingType(12, 13));
+		assertNull(instance.getGridData(0, 0));
+		assertNull(instance.getGridData(51, 51));
+		assertEquals(0, instance.getNumberOfBuildings(BuildingType.SMALL_TOWER));
+		assertEquals(BuildingType.MOAT, instance.getBuildingType(14, 15));
+		assertEquals(2, instance.getWorldAge());
+		instance.verifyDesignStats();
+		instance.verifyBuildingIndex();
+	}
+
+	@Test
+	public void testImportDataFromCharSequence() throws Exception
+	{
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle instance = new Castle();
+			instance.importData(new StringBuilder(importString));
+
+			Castle other = new Castle();
+			other.importData(importString);
+			assertTrue(instance.hasSameDesign(other));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testImportDataIncompleteSection() throws Exception
+	{
+		new Castle().importData("3abcZ");
+	}
+
+	@Test
+	public void testGetCompactExport() throws Exception
+	{
+		Random random = new Random(11);
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle instance = new Castle();
+			instance.importData(importString);
+			instance.setWorldAge(1 + random.nextInt(5));
+
+			for (int i=0; i<20; i++)
+			{
+				String compactExport = instance.getCompactExport();
+				assertEquals(Castle.compactExportVersionId, Character.getNumericValue(compactExport.charAt(0)));
+
+				//Buildings partly covered by walls move when reimported, so compare with the plain export
+				Castle expected = new Castle();
+				expected.importData(instance.getGridDataExport());
+				Castle other = new Castle();
+				other.importData(compactExport);
+				assertEquals(expected.getGridDataExport(), other.getGridDataExport());
+				other.verifyDesignStats();
+				other.verifyBuildingIndex();
+
+				//Scatter some walls so that both ways of storing them get used
+				for (int j=0; j<random.nextInt(200); j++)
+				{
+					Point point = new Point(random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH), random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH));
+					instance.addBuilding(Collections.singleton(point), random.nextBoolean() ? BuildingType.STONE_WALL : BuildingType.MOAT);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testGetCompactExportSmaller() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.importData(LayoutUtils.getImportString("waterworld"));
+		assertTrue(instance.getCompactExport().length() * 5 < instance.getGridDataExport().length());
+	}
+
+	@Test(expected = UnsupportedVersionException.class)
+	public void testImportDataNewerVersion() throws Exception
+	{
+		new Castle().importData("6ZZZZZ1");
+	}
+
+	@Test
+	public void testGetGridDataExportRunLengthEncoded() throws Exception
+	{
+		Random random = new Random(5);
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle instance = new Castle();
+			instance.importData(importString);
+
+			for (int i=0; i<10; i++)
+			{
+				String exportString = instance.getGridDataExport(true);
+				assertEquals(Castle.runLengthExportVersionId, Character.getNumericValue(exportString.charAt(0)));
+				assertTrue(exportString.length() <= instance.getGridDataExport().length());
+
+				Castle expected = new Castle();
+				expected.importData(instance.getGridDataExport());
+				Castle other = new Castle();
+				other.importData(exportString);
+				assertEquals(expected.getGridDataExport(), other.getGridDataExport());
+				other.verifyDesignStats();
+				other.verifyBuildingIndex();
+
+				//Add some straight runs, some of them crossing
+				for (int j=0; j<5; j++)
+				{
+					int x = random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH);
+					int y = random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH);
+					boolean across = random.nextBoolean();
+					BuildingType buildingType = random.nextBoolean() ? BuildingType.WOODEN_WALL : BuildingType.MOAT;
+					for (int k=0; k<random.nextInt(20) && x + k < Castle.CASTLE_BOUNDRY_LENGTH && y + k < Castle.CASTLE_BOUNDRY_LENGTH; k++)
+					{
+						Point point = across ? new Point(x + k, y) : new Point(x, y + k);
+						instance.addBuilding(Collections.singleton(point), buildingType);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testImportDataRuns() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.importData("5R013Q" + Converter.intToAlphaNumeric(51) + Converter.intToAlphaNumeric(49) + "301ZZZZZ1");
+
+		assertEquals(BuildingType.WOODEN_WALL, instance.getBuildingType(0, 1));
+		assertEquals(BuildingType.WOODEN_WALL, instance.getBuildingType(2, 1));
+		assertNull(instance.getGridData(3, 1));
+		assertEquals(BuildingType.WOODEN_WALL, instance.getBuildingType(51, 51));
+		assertEquals(BuildingType.WOODEN_WALL, instance.getBuildingType(51, 49));
+		assertNull(instance.getGridData(51, 48));
+		//The last tile is on top of the first run
+		assertEquals(6, instance.getNumberOfBuildings(BuildingType.WOODEN_WALL));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testImportDataRunOffGrid() throws Exception
+	{
+		new Castle().importData("5R" + Converter.intToAlphaNumeric(50) + "03ZZZZZ1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testImportDataIncompleteRun() throws Exception
+	{
+		new Castle().importData("5R01ZZZZZ1");
+	}
+
+	@Test
+	public void testGetGridDataExportCached() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.importData(LayoutUtils.getImportString("everything_v3"));
+		String exportString = instance.getGridDataExport();
+		assertSame(exportString, instance.getGridDataExport());
+		assertNotSame(exportString, instance.getGridDataExport(true));
+		assertSame(instance.getGridDataExport(true), instance.getGridDataExport(true));
+
+		//Every kind of change has to be seen
+		instance.setWorldAge(2);
+		String worldAgeExport = instance.getGridDataExport();
+		assertFalse(exportString.equals(worldAgeExport));
+
+		//Somewhere empty, so that removing it again gets back to where we were
+		final Point point = new Point(0, 0);
+		while (instance.getGridData(point.x, point.y) != null)
+		{
+			point.y = (point.y + 1) % Castle.CASTLE_BOUNDRY_LENGTH;
+			if (point.y == 0) point.x++;
+		}
+		instance.addBuilding(Collections.singleton(point), BuildingType.KILLING_PIT);
+		String addedExport = instance.getGridDataExport();
+		assertFalse(worldAgeExport.equals(addedExport));
+
+		instance.undo();
+		assertEquals(worldAgeExport, instance.getGridDataExport());
+		instance.redo();
+		assertEquals(addedExport, instance.getGridDataExport());
+		instance.verifyDesignStats();
+
+		instance.batch(new CastleEdit()
+		{
+			public void edit(Castle castle)
+			{
+				castle.getGridDataExport();
+				castle.removeBuilding(castle.getGridData(point.x, point.y));
+			}
+		});
+		assertEquals(worldAgeExport, instance.getGridDataExport());
+		instance.verifyDesignStats();
+
+		instance.importData(exportString);
+		assertEquals(exportString, instance.getGridDataExport());
+		instance.resetGridData();
+		assertEquals(new Castle().getGridDataExport(), instance.getGridDataExport());
+	}
+
+	@Test
+	public void testWriteExport() throws Exception
+	{
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle instance = new Castle();
+			instance.importData(importString);
+
+			StringWriter out = new StringWriter();
+			instance.writeExport(out);
+			assertEquals(instance.getGridDataExport(), out.toString());
+
+			Castle other = new Castle();
+			other.importData(out.toString());
+			assertTrue(instance.hasSameDesign(other));
+		}
+	}
+
 	@Test
 	public void testImportData() throws Exception
 	{
@@ -312,4 +577,689 @@ public class CastleTest
 		 */
 		assertEquals(0, instance.getTotalBuildingTime());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testDesignStatsStayConsistent() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.verifyDesignStats();
+		instance.verifyBuildingIndex();
+
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			instance.importData(importString);
+			instance.verifyDesignStats();
+			instance.verifyBuildingIndex();
+
+			for (int worldAge=1; worldAge<=5; worldAge++)
+			{
+				instance.setWorldAge(worldAge);
+				instance.verifyDesignStats();
+				instance.verifyBuildingIndex();
+			}
+
+			//Build over the top of whatever is there, then knock it all down again
+			for (BuildingType buildingType : BuildingType.values())
+			{
+				Set<Point> points = new HashSet<>();
+				points.add(new Point(10, 10));
+				points.add(new Point(10, 11));
+				points.add(new Point(11, 10));
+				instance.addBuilding(points, buildingType);
+				instance.verifyDesignStats();
+				instance.verifyBuildingIndex();
+			}
+
+			for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+			{
+				for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+				{
+					TileBuilding tileBuilding = instance.getGridData(i, j);
+					if (tileBuilding != null && tileBuilding.getBuildingType() != BuildingType.KEEP)
+					{
+						instance.removeBuilding(tileBuilding);
+						instance.verifyDesignStats();
+						instance.verifyBuildingIndex();
+					}
+				}
+			}
+			assertEquals(0, instance.getTotalBuildingTime());
+			assertTrue(instance.getDesignErrors().isEmpty());
+		}
+	}
+
+	@Test
+	public void testGetDesignErrorsWorldAge() throws Exception
+	{
+		Castle instance = new Castle();
+
+		Set<Point> points = new HashSet<>();
+		for (int i=0; i<3; i++)
+		{
+			for (int j=0; j<3; j++) points.add(new Point(i, j));
+		}
+		instance.addBuilding(points, BuildingType.BOMBARD);
+
+		//Bombards aren't allowed until world age 4
+		assertEquals(1, instance.getDesignErrors().size());
+
+		instance.setWorldAge(4);
+		assertTrue(instance.getDesignErrors().isEmpty());
+
+		instance.setWorldAge(2);
+		assertEquals(1, instance.getDesignErrors().size());
+		instance.verifyDesignStats();
+		instance.verifyBuildingIndex();
+	}
+
+	@Test
+	public void testGetBuildingCoords() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.importData(LayoutUtils.getImportString("everything_v3"));
+
+		for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+		{
+			for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+			{
+				Set<Point> buildingCoords = instance.getBuildingCoords(i, j);
+				TileBuilding tileBuilding = instance.getGridData(i, j);
+
+				if (tileBuilding == null)
+				{
+					assertTrue(buildingCoords.isEmpty());
+				}
+				else
+				{
+					Dimension dimension = tileBuilding.getBuildingType().getDimension();
+					assertEquals(dimension.width * dimension.height, buildingCoords.size());
+					assertTrue(buildingCoords.contains(new Point(i, j)));
+
+					for (Point p : buildingCoords)
+					{
+						assertEquals(tileBuilding.getBuildingId(), instance.getBuildingId(p.x, p.y));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAddBuildingOverAnother()
+	{
+		Castle instance = new Castle();
+
+		Set<Point> wall = new HashSet<>();
+		for (int i=0; i<5; i++) wall.add(new Point(i, 0));
+		instance.addBuilding(wall, BuildingType.STONE_WALL);
+
+		Set<Point> tower = new HashSet<>();
+		tower.add(new Point(1, 0));
+		tower.add(new Point(2, 0));
+		tower.add(new Point(1, 1));
+		tower.add(new Point(2, 1));
+		instance.addBuilding(tower, BuildingType.LOOKOUT_TOWER);
+		instance.verifyBuildingIndex();
+
+		//The wall has lost the tiles the tower was built over
+		assertEquals(3, instance.getBuildingCoords(0, 0).size());
+		assertEquals(tower, instance.getBuildingCoords(2, 1));
+
+		instance.removeBuilding(instance.getGridData(4, 0));
+		instance.verifyBuildingIndex();
+		assertNull(instance.getGridData(0, 0));
+		assertNull(instance.getGridData(3, 0));
+		assertEquals(BuildingType.LOOKOUT_TOWER, instance.getBuildingType(1, 0));
+	}
+
+	@Test
+	public void testParallelImport() throws Exception
+	{
+		List<String> importStrings = new ArrayList<>(LayoutUtils.getImportStrings());
+		List<String> expectedResults = new ArrayList<>();
+
+		for (String importString : importStrings)
+		{
+			Castle castle = new Castle();
+			castle.importData(importString);
+			expectedResults.add(summarise(castle));
+		}
+
+		ExecutorService executorService = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int thread=0; thread<32; thread++)
+			{
+				futures.add(executorService.submit(() ->
+				{
+					List<String> results = new ArrayList<>();
+					Castle castle = new Castle();
+					for (int repeat=0; repeat<20; repeat++)
+					{
+						results.clear();
+						for (String importString : importStrings)
+						{
+							castle.importData(importString);
+							results.add(summarise(castle));
+						}
+					}
+					return results;
+				}));
+			}
+
+			for (Future<List<String>> future : futures)
+			{
+				assertEquals(expectedResults, future.get());
+			}
+		}
+		finally
+		{
+			executorService.shutdown();
+		}
+	}
+
+	private static String summarise(Castle castle)
+	{
+		StringBuilder summary = new StringBuilder(castle.getGridDataExport());
+
+		for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+		{
+			for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+			{
+				summary.append(',').append(castle.getBuildingId(i, j));
+			}
+		}
+		for (BuildingResource buildingResource : BuildingResource.values())
+		{
+			summary.append(',').append(castle.getTotalResource(buildingResource));
+		}
+		return summary.append(',').append(castle.getTotalBuildingTime())
+			.append(castle.getDesignErrors())
+			.toString();
+	}
+
+	@Test
+	public void testDesignErrorListener() throws Exception
+	{
+		Castle instance = new Castle();
+		List<List<String>> notifications = new ArrayList<>();
+		DesignErrorListener designErrorListener = (designErrors) -> notifications.add(new ArrayList<>(designErrors));
+		instance.addDesignErrorListener(designErrorListener);
+
+		instance.importData(LayoutUtils.getImportString("typical"));
+		//No errors before or after, so nothing has changed
+		assertTrue(notifications.isEmpty());
+
+		instance.importData(LayoutUtils.getImportString("waterworld"));
+		assertEquals(1, notifications.size());
+		assertEquals(instance.getDesignErrors(), notifications.get(0));
+
+		instance.setWorldAge(instance.getWorldAge());
+		assertEquals(1, notifications.size());
+
+		instance.resetGridData();
+		assertEquals(2, notifications.size());
+		assertTrue(notifications.get(1).isEmpty());
+
+		instance.removeDesignErrorListener(designErrorListener);
+		instance.importData(LayoutUtils.getImportString("waterworld"));
+		assertEquals(2, notifications.size());
+	}
+
+	@Test
+	public void testGetOccupancy() throws Exception
+	{
+		Castle instance = new Castle();
+
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			instance.importData(importString);
+
+			for (OccupancyLayer occupancyLayer : OccupancyLayer.values())
+			{
+				Bitboard bitboard = instance.getOccupancy(occupancyLayer);
+
+				for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+				{
+					for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+					{
+						BuildingType buildingType = instance.getBuildingType(i, j);
+						assertEquals(buildingType != null && occupancyLayer.contains(buildingType), bitboard.get(i, j));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testIsPlaceable() throws Exception
+	{
+		Castle instance = new Castle();
+
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			instance.importData(importString);
+
+			for (BuildingType buildingType : BuildingType.values())
+			{
+				for (int i=-1; i<=Castle.CASTLE_BOUNDRY_LENGTH; i++)
+				{
+					for (int j=-1; j<=Castle.CASTLE_BOUNDRY_LENGTH; j++)
+					{
+						assertEquals(isPlaceableByScan(instance, buildingType, i, j), instance.isPlaceable(buildingType, i, j));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The placement rules, checked a tile at a time.
+	 */
+	private static boolean isPlaceableByScan(Castle castle, BuildingType buildingType, int x, int y)
+	{
+		Dimension dimension = buildingType.getDimension();
+
+		if (x < 0 || y < 0 || x + dimension.width > Castle.CASTLE_BOUNDRY_LENGTH || y + dimension.height > Castle.CASTLE_BOUNDRY_LENGTH)
+		{
+			return false;
+		}
+
+		for (int i=x-1; i<=x+dimension.width; i++)
+		{
+			for (int j=y-1; j<=y+dimension.height; j++)
+			{
+				if (i < 0 || i >= Castle.CASTLE_BOUNDRY_LENGTH || j < 0 || j >= Castle.CASTLE_BOUNDRY_LENGTH) continue;
+
+				BuildingType neighbour = castle.getBuildingType(i, j);
+				if (neighbour == null) continue;
+
+				boolean inside = i >= x && i < x + dimension.width && j >= y && j < y + dimension.height;
+				if (inside && neighbour != BuildingType.WOODEN_WALL && neighbour != BuildingType.STONE_WALL) return false;
+				if (buildingType.isGapRequired() && neighbour.isGapRequired()) return false;
+			}
+		}
+		return true;
+	}
+
+	private int designChanges = 0;
+
+	@Test
+	public void testDesignListener() throws Exception
+	{
+		Castle instance = new Castle();
+		designChanges = 0;
+		instance.addDesignListener(() -> designChanges++);
+
+		instance.importData(LayoutUtils.getImportString("typical"));
+		assertEquals(1, designChanges);
+
+		instance.setWorldAge(instance.getWorldAge());
+		assertEquals(1, designChanges);
+
+		instance.setWorldAge(instance.getWorldAge() + 1);
+		assertEquals(2, designChanges);
+
+		instance.removeBuilding(instance.getGridData(25, 25));
+		assertEquals(3, designChanges);
+
+		instance.resetGridData();
+		assertEquals(4, designChanges);
+	}
+
+	@Test
+	public void testBatch()
+	{
+		Castle instance = new Castle();
+		designChanges = 0;
+		instance.addDesignListener(() -> designChanges++);
+		List<List<String>> errorNotifications = new ArrayList<>();
+		instance.addDesignErrorListener((designErrors) -> errorNotifications.add(new ArrayList<>(designErrors)));
+
+		instance.batch((castle) ->
+		{
+			for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+			{
+				for (int j=0; j<12; j++)
+				{
+					castle.addBuilding(Collections.singleton(new Point(i, j)), BuildingType.MOAT);
+				}
+			}
+			castle.removeBuilding(castle.getGridData(0, 0));
+		});
+
+		//Everything arrives at once when the batch is committed
+		assertEquals(1, designChanges);
+		assertEquals(1, errorNotifications.size());
+		assertEquals(Castle.CASTLE_BOUNDRY_LENGTH * 12 - 1, instance.getNumberOfBuildings(BuildingType.MOAT));
+		instance.verifyDesignStats();
+
+		instance.beginBatch();
+		instance.beginBatch();
+		instance.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.MOAT);
+		instance.commitBatch();
+		assertEquals(1, designChanges);
+		instance.commitBatch();
+		assertEquals(2, designChanges);
+
+		//An empty batch changes nothing
+		instance.batch((castle) -> {});
+		assertEquals(2, designChanges);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCommitBatchWithoutBegin()
+	{
+		new Castle().commitBatch();
+	}
+
+	@Test
+	public void testGetSummedAreaTable() throws Exception
+	{
+		Castle instance = new Castle();
+
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			instance.importData(importString);
+			assertSummedAreaTablesMatch(instance);
+
+			instance.addBuilding(Collections.singleton(new Point(3, 4)), BuildingType.STONE_WALL);
+			instance.removeBuilding(instance.getGridData(25, 25));
+			assertSummedAreaTablesMatch(instance);
+		}
+	}
+
+	private static void assertSummedAreaTablesMatch(Castle castle)
+	{
+		for (OccupancyLayer occupancyLayer : OccupancyLayer.values())
+		{
+			Bitboard bitboard = castle.getOccupancy(occupancyLayer);
+
+			for (int size=1; size<=Castle.CASTLE_BOUNDRY_LENGTH; size+=17)
+			{
+				for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i+=3)
+				{
+					for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j+=3)
+					{
+						assertEquals(bitboard.count(i, j, size, size), castle.countTiles(occupancyLayer, i, j, size, size));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCopy() throws Exception
+	{
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle instance = new Castle();
+			instance.importData(importString);
+			String exportString = instance.getGridDataExport();
+
+			Castle copy = instance.copy();
+			assertEquals(exportString, copy.getGridDataExport());
+			copy.verifyDesignStats();
+			copy.verifyBuildingIndex();
+			assertEquals(instance.getDesignErrors(), copy.getDesignErrors());
+
+			//Changing the copy leaves the original alone, and vice versa
+			copy.removeBuilding(copy.getGridData(25, 25));
+			copy.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.MOAT);
+			copy.verifyDesignStats();
+			copy.verifyBuildingIndex();
+			assertEquals(exportString, instance.getGridDataExport());
+			assertNull(copy.getGridData(25, 25));
+
+			instance.resetGridData();
+			assertEquals(BuildingType.MOAT, copy.getBuildingType(0, 0));
+		}
+	}
+
+	@Test
+	public void testGetFingerprint() throws Exception
+	{
+		Map<Long, String> fingerprints = new HashMap<>();
+
+		for (String importString : LayoutUtils.getImportStrings())
+		{
+			Castle instance = new Castle();
+			instance.importData(importString);
+			long fingerprint = instance.getFingerprint();
+
+			Castle other = new Castle();
+			other.importData(instance.getGridDataExport());
+			assertEquals(fingerprint, other.getFingerprint());
+			assertEquals(fingerprint, instance.copy().getFingerprint());
+			assertTrue(instance.hasSameDesign(other));
+
+			//Changing the design and changing it back gives the same fingerprint
+			for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+			{
+				for (int j=0; j<Castle.CASTLE_BOUNDRY_LENGTH; j++)
+				{
+					if (instance.getGridData(i, j) == null)
+					{
+						instance.addBuilding(Collections.singleton(new Point(i, j)), BuildingType.KILLING_PIT);
+						assertNotEquals(fingerprint, instance.getFingerprint());
+						assertFalse(instance.hasSameDesign(other));
+
+						instance.removeBuilding(instance.getGridData(i, j));
+						assertEquals(fingerprint, instance.getFingerprint());
+					}
+				}
+			}
+
+			instance.setWorldAge(instance.getWorldAge() + 1);
+			assertNotEquals(fingerprint, instance.getFingerprint());
+			assertFalse(instance.hasSameDesign(other));
+			instance.verifyDesignStats();
+
+			String previous = fingerprints.put(fingerprint, other.getGridDataExport());
+			if (previous != null) assertEquals(previous, other.getGridDataExport());
+		}
+	}
+
+	@Test
+	public void testGetFingerprintStable()
+	{
+		/*
+		 * Fingerprints may be stored, so must never change between versions.
+		 * If this fails, the keys have been changed by mistake.
+		 */
+		assertEquals(0xf4d710632974f103L, new Castle().getFingerprint());
+	}
+
+	@Test
+	public void testUndoRedo() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.importData(LayoutUtils.getImportStrings().iterator().next());
+		assertFalse(instance.canUndo());
+		assertFalse(instance.undo());
+
+		List<String> history = new ArrayList<>();
+		history.add(instance.getGridDataExport());
+
+		Random random = new Random(42);
+		BuildingType[] buildingTypes = BuildingType.values();
+		for (int i=0; i<1000; i++)
+		{
+			int x = random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH);
+			int y = random.nextInt(Castle.CASTLE_BOUNDRY_LENGTH);
+			int modCount = instance.getModCount();
+
+			if (random.nextInt(10) == 0)
+			{
+				instance.setWorldAge(random.nextInt(5) + 1);
+			}
+			else if (instance.getGridData(x, y) != null && random.nextBoolean())
+			{
+				instance.removeBuilding(instance.getGridData(x, y));
+			}
+			else
+			{
+				instance.addBuilding(Collections.singleton(new Point(x, y)), buildingTypes[random.nextInt(buildingTypes.length)]);
+			}
+			//Changes that didn't change anything don't get an undo step
+			if (instance.getModCount() != modCount) history.add(instance.getGridDataExport());
+		}
+
+		for (int i=history.size() - 2; i>=0; i--)
+		{
+			assertTrue(instance.undo());
+			assertEquals(history.get(i), instance.getGridDataExport());
+			instance.verifyDesignStats();
+			instance.verifyBuildingIndex();
+		}
+		assertFalse(instance.undo());
+
+		for (int i=1; i<history.size(); i++)
+		{
+			assertTrue(instance.redo());
+			assertEquals(history.get(i), instance.getGridDataExport());
+		}
+		assertFalse(instance.redo());
+		instance.verifyDesignStats();
+		instance.verifyBuildingIndex();
+	}
+
+	@Test
+	public void testUndoBatchAndRedoTruncated()
+	{
+		Castle instance = new Castle();
+		String emptyExport = instance.getGridDataExport();
+
+		instance.batch(new CastleEdit()
+		{
+			public void edit(Castle castle)
+			{
+				castle.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.MOAT);
+				castle.addBuilding(Collections.singleton(new Point(1, 0)), BuildingType.MOAT);
+				castle.setWorldAge(3);
+			}
+		});
+		String batchExport = instance.getGridDataExport();
+
+		//A batch is undone in one go
+		designChanges = 0;
+		instance.addDesignListener(new DesignListener()
+		{
+			public void designChanged()
+			{
+				designChanges++;
+			}
+		});
+		assertTrue(instance.undo());
+		assertEquals(emptyExport, instance.getGridDataExport());
+		assertEquals(1, instance.getWorldAge());
+		assertEquals(1, designChanges);
+		assertTrue(instance.canRedo());
+
+		assertTrue(instance.redo());
+		assertEquals(batchExport, instance.getGridDataExport());
+		assertEquals(3, instance.getWorldAge());
+
+		//A new change forgets what could be redone
+		instance.undo();
+		instance.addBuilding(Collections.singleton(new Point(5, 5)), BuildingType.MOAT);
+		assertFalse(instance.canRedo());
+		assertTrue(instance.undo());
+		assertEquals(emptyExport, instance.getGridDataExport());
+		assertFalse(instance.canUndo());
+	}
+
+	@Test
+	public void testUndoClearedByImport() throws Exception
+	{
+		Castle instance = new Castle();
+		instance.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.MOAT);
+		assertTrue(instance.canUndo());
+
+		instance.importData(LayoutUtils.getImportStrings().iterator().next());
+		assertFalse(instance.canUndo());
+
+		instance.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.MOAT);
+		instance.resetGridData();
+		assertFalse(instance.canUndo());
+	}
+
+	/**
+	 * A building partly off the grid should be rejected without changing
+	 * the design or breaking the undo history.
+	 */
+	@Test
+	public void testUndoAfterFailedAddBuilding()
+	{
+		Castle instance = new Castle();
+		instance.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.MOAT);
+		long modCount = instance.getModCount();
+
+		Set<Point> buildingCoords = new LinkedHashSet<Point>();
+		buildingCoords.add(new Point(1, 1));
+		buildingCoords.add(new Point(1, Castle.CASTLE_BOUNDRY_LENGTH));
+		try
+		{
+			instance.addBuilding(buildingCoords, BuildingType.STONE_WALL);
+			fail("Expected the building to be rejected");
+		}
+		catch (ArrayIndexOutOfBoundsException e)
+		{
+			//Expected
+		}
+		assertEquals(modCount, instance.getModCount());
+		assertNull(instance.getGridData(1, 1));
+
+		assertTrue(instance.undo());
+		assertNull(instance.getGridData(0, 0));
+		instance.verifyDesignStats();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUndoDuringBatch()
+	{
+		Castle instance = new Castle();
+		instance.beginBatch();
+		instance.undo();
+	}
+
+	@Test
+	public void testUndoLimit()
+	{
+		Castle instance = new Castle();
+		//Each single tile change is 5 ints, so only the last 10 fit
+		instance.setUndoLimit(10 * 5 * 4);
+		assertEquals(200, instance.getUndoLimit());
+
+		for (int i=0; i<100; i++)
+		{
+			instance.addBuilding(Collections.singleton(new Point(i % Castle.CASTLE_BOUNDRY_LENGTH, i / Castle.CASTLE_BOUNDRY_LENGTH)), BuildingType.MOAT);
+		}
+
+		int undone = 0;
+		while (instance.undo()) undone++;
+		assertEquals(10, undone);
+		assertEquals(BuildingType.MOAT, instance.getBuildingType(89 % Castle.CASTLE_BOUNDRY_LENGTH, 89 / Castle.CASTLE_BOUNDRY_LENGTH));
+		assertNull(instance.getGridData(90 % Castle.CASTLE_BOUNDRY_LENGTH, 90 / Castle.CASTLE_BOUNDRY_LENGTH));
+		instance.verifyDesignStats();
+		instance.verifyBuildingIndex();
+
+		//A change too big to fit can't be undone
+		instance.setUndoLimit(0);
+		instance.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.STONE_WALL);
+		assertFalse(instance.canUndo());
+	}
+
+	@Test
+	public void testCopyKeepsUndoLimit()
+	{
+		Castle instance = new Castle();
+		instance.setUndoLimit(10 * 5 * 4);
+		instance.addBuilding(Collections.singleton(new Point(0, 0)), BuildingType.MOAT);
+
+		Castle copy = instance.copy();
+		assertEquals(200, copy.getUndoLimit());
+		assertFalse(copy.canUndo());
+	}
+}
@@ -82,4 +82,86 @@ public class ConverterTest
 	{
 		Converter.alphaNumericToInt('+');
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testEveryCharacter()
+	{
+		for (int i=0; i<=60; i++)
+		{
+			assertEquals(i, Converter.alphaNumericToInt(Converter.intToAlphaNumeric(i)));
+		}
+
+		int valid = 0;
+		for (char c=0; c<512; c++)
+		{
+			try
+			{
+				Converter.alphaNumericToInt(c);
+				valid++;
+			}
+			catch (IllegalArgumentException e)
+			{
+				assertEquals("Unexpected character in import: " + c, e.getMessage());
+			}
+		}
+		assertEquals(61, valid);
+	}
+
+	@Test
+	public void testBulkRoundTrip()
+	{
+		int[] integers = new int[61];
+		for (int i=0; i<integers.length; i++) integers[i] = i;
+
+		char[] chars = new char[integers.length + 2];
+		Converter.intsToAlphaNumerics(integers, 0, integers.length, chars, 1);
+
+		for (int i=0; i<integers.length; i++)
+		{
+			assertEquals(Converter.intToAlphaNumeric(i), chars[i + 1]);
+		}
+
+		int[] decoded = new int[integers.length];
+		Converter.alphaNumericsToInts(chars, 1, integers.length, decoded, 0);
+		assertArrayEquals(integers, decoded);
+	}
+
+	@Test
+	public void testBulkErrors()
+	{
+		try
+		{
+			Converter.intsToAlphaNumerics(new int[] {1, 2, 61}, 0, 3, new char[3], 0);
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals("Invalid number: 61", e.getMessage());
+		}
+
+		try
+		{
+			Converter.intsToAlphaNumerics(new int[] {-1}, 0, 1, new char[1], 0);
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals("Invalid number: -1", e.getMessage());
+		}
+
+		//A character that would look like 'a' if only the low bits were used
+		char notA = (char)('a' + 256);
+		for (char c : new char[] {'Z', '+', notA})
+		{
+			try
+			{
+				Converter.alphaNumericsToInts(new char[] {'a', c}, 0, 2, new int[2], 0);
+				fail();
+			}
+			catch (IllegalArgumentException e)
+			{
+				assertEquals("Unexpected character in import: " + c, e.getMessage());
+			}
+		}
+	}
+}
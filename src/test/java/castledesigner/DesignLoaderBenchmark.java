@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Compares the time and memory taken to read the barcode from the test
+ * designs' images when decoding the whole image, decoding just the barcode
+ * band, and reading the text chunk of the same designs saved again by
+ * DesignWriter, and how long isDesign takes to probe them and a
+ * screenshot. Not run as part of the tests; run the main method by hand.
+ *
+ * @author David Green
+ */
+public class DesignLoaderBenchmark
+{
+	private static final int WARMUP_ITERATIONS = 50;
+	private static final int ITERATIONS = 200;
+
+	public static void main(String[] args) throws Exception
+	{
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		File dir = Files.createTempDirectory("designs").toFile();
+		for (File file : LayoutUtils.getImageFiles())
+		{
+			//The same design saved with a text chunk
+			File textFile = new File(dir, file.getName());
+			textFile.deleteOnExit();
+			DesignWriter.write(ImageIO.read(file), DesignLoader.readBarcode(file), textFile);
+
+			for (int i=0; i<WARMUP_ITERATIONS; i++)
+			{
+				Barcode.extractBarcode(ImageIO.read(file));
+				DesignLoader.readBarcode(file);
+				DesignLoader.readDesign(textFile);
+			}
+
+			long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+			long timeBefore = System.nanoTime();
+			for (int i=0; i<ITERATIONS; i++) Barcode.extractBarcode(ImageIO.read(file));
+			long wholeTime = System.nanoTime() - timeBefore;
+			long wholeAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+			allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+			timeBefore = System.nanoTime();
+			for (int i=0; i<ITERATIONS; i++) DesignLoader.readBarcode(file);
+			long regionTime = System.nanoTime() - timeBefore;
+			long regionAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+			allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+			timeBefore = System.nanoTime();
+			for (int i=0; i<ITERATIONS; i++) DesignLoader.readDesign(textFile);
+			long textTime = System.nanoTime() - timeBefore;
+			long textAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+			System.out.printf("%s: whole image %.2f ms and %d KB, barcode band %.2f ms and %d KB, text chunk %.3f ms and %d KB per read%n", file.getName(),
+				wholeTime / 1e6 / ITERATIONS, wholeAllocated / 1024 / ITERATIONS,
+				regionTime / 1e6 / ITERATIONS, regionAllocated / 1024 / ITERATIONS,
+				textTime / 1e6 / ITERATIONS, textAllocated / 1024 / ITERATIONS);
+		}
+
+		//A screenshot that isn't a design, noisy enough not to compress away
+		File screenshot = new File(dir, "screenshot.png");
+		screenshot.deleteOnExit();
+		BufferedImage bufferedImage = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(0);
+		for (int x=0; x<bufferedImage.getWidth(); x++)
+		{
+			for (int y=0; y<bufferedImage.getHeight(); y++)
+			{
+				bufferedImage.setRGB(x, y, random.nextInt());
+			}
+		}
+		ImageIO.write(bufferedImage, "png", screenshot);
+
+		File[] probeFiles = {screenshot, LayoutUtils.getImageFiles()[0], new File(dir, LayoutUtils.getImageFiles()[0].getName())};
+		for (File file : probeFiles)
+		{
+			for (int i=0; i<WARMUP_ITERATIONS * 10; i++) DesignLoader.isDesign(file);
+
+			long timeBefore = System.nanoTime();
+			for (int i=0; i<ITERATIONS * 10; i++) DesignLoader.isDesign(file);
+			long probeTime = System.nanoTime() - timeBefore;
+
+			System.out.printf("isDesign(%s) = %b: %.1f us%n", file, DesignLoader.isDesign(file), probeTime / 1e3 / ITERATIONS / 10);
+		}
+		dir.deleteOnExit();
+	}
+}
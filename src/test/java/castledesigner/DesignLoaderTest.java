@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author David Green
+ */
+public class DesignLoaderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Decoding just the barcode band should give the same barcode as
+	 * decoding the whole image.
+	 */
+	@Test
+	public void testReadBarcode() throws Exception
+	{
+		for (File file : LayoutUtils.getImageFiles())
+		{
+			assertEquals(file.getName(), Barcode.extractBarcode(ImageIO.read(file)), DesignLoader.readBarcode(file));
+		}
+	}
+
+	@Test
+	public void testReadBarcodeRoundTrip() throws Exception
+	{
+		String data = LayoutUtils.getImportString("everything_v3");
+		BufferedImage bufferedImage = new BufferedImage(700, 700, BufferedImage.TYPE_INT_ARGB);
+		Barcode.embedBarcode(bufferedImage, data);
+
+		File file = folder.newFile("design.png");
+		ImageIO.write(bufferedImage, "png", file);
+
+		assertEquals(data, DesignLoader.readBarcode(file));
+	}
+
+	/**
+	 * Images without the text chunk should fall back to the barcode.
+	 */
+	@Test
+	public void testReadDesignFallsBackToBarcode() throws Exception
+	{
+		for (File file : LayoutUtils.getImageFiles())
+		{
+			assertNull(file.getName(), DesignLoader.readTextChunk(file));
+			assertEquals(file.getName(), Barcode.extractBarcode(ImageIO.read(file)), DesignLoader.readDesign(file));
+		}
+	}
+
+	@Test
+	public void testReadDesignFromTextChunk() throws Exception
+	{
+		//A different string in the text chunk to the barcode shows which was read
+		File file = folder.newFile("design.png");
+		DesignWriter.write(new BufferedImage(700, 700, BufferedImage.TYPE_INT_ARGB), LayoutUtils.getImportString("empty"), file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		BufferedImage bufferedImage = ImageIO.read(file);
+		Barcode.embedBarcode(bufferedImage, LayoutUtils.getImportString("typical"));
+		ImageIO.write(bufferedImage, "png", file);
+		assertEquals(LayoutUtils.getImportString("typical"), DesignLoader.readDesign(file));
+
+		Files.write(file.toPath(), bytes);
+		assertEquals(LayoutUtils.getImportString("empty"), DesignLoader.readDesign(file));
+	}
+
+	/**
+	 * A damaged text chunk should be ignored in favour of the barcode.
+	 */
+	@Test
+	public void testReadDesignBadChecksum() throws Exception
+	{
+		String data = LayoutUtils.getImportString("everything_v3");
+		File file = folder.newFile("design.png");
+		DesignWriter.write(new BufferedImage(700, 700, BufferedImage.TYPE_INT_ARGB), data, file);
+
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		String contents = new String(bytes, StandardCharsets.ISO_8859_1);
+		int index = contents.indexOf(DesignWriter.TEXT_KEYWORD) + DesignWriter.TEXT_KEYWORD.length() + 1;
+		bytes[index] ^= 1;
+		Files.write(file.toPath(), bytes);
+
+		assertNull(DesignLoader.readTextChunk(file));
+		assertEquals(data, DesignLoader.readDesign(file));
+	}
+
+	@Test
+	public void testReadTextChunkNotAnImage() throws Exception
+	{
+		assertNull(DesignLoader.readTextChunk(LayoutUtils.getTextFiles()[0]));
+		assertNull(DesignLoader.readTextChunk(folder.newFile("empty.png")));
+	}
+
+	@Test
+	public void testIsDesign() throws Exception
+	{
+		for (File file : LayoutUtils.getImageFiles())
+		{
+			assertTrue(file.getName(), DesignLoader.isDesign(file));
+		}
+
+		File file = folder.newFile("text.png");
+		DesignWriter.write(new BufferedImage(700, 700, BufferedImage.TYPE_INT_ARGB), LayoutUtils.getImportString("typical"), file);
+		assertTrue(DesignLoader.isDesign(file));
+	}
+
+	/**
+	 * Without alpha there are 3 bytes per pixel, and the probe should
+	 * still find the border.
+	 */
+	@Test
+	public void testIsDesignRGB() throws Exception
+	{
+		BufferedImage bufferedImage = createNoise(BufferedImage.TYPE_INT_RGB);
+		Barcode.embedBarcode(bufferedImage, LayoutUtils.getImportString("typical"));
+		File file = folder.newFile("design.png");
+		ImageIO.write(bufferedImage, "png", file);
+
+		assertTrue(DesignLoader.isDesign(file));
+	}
+
+	@Test
+	public void testIsDesignForeignImages() throws Exception
+	{
+		assertFalse(DesignLoader.isDesign(LayoutUtils.getTextFiles()[0]));
+		assertFalse(DesignLoader.isDesign(folder.newFile("empty.png")));
+
+		int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED};
+		for (int type : types)
+		{
+			File file = folder.newFile("screenshot" + type + ".png");
+			ImageIO.write(createNoise(type), "png", file);
+
+			assertFalse("Type " + type, DesignLoader.isDesign(file));
+		}
+
+		File file = folder.newFile("small.png");
+		ImageIO.write(new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB), "png", file);
+		assertFalse(DesignLoader.isDesign(file));
+	}
+
+	/**
+	 * A damaged image shouldn't throw, just not be a design.
+	 */
+	@Test
+	public void testIsDesignTruncated() throws Exception
+	{
+		File file = folder.newFile("design.png");
+		BufferedImage bufferedImage = createNoise(BufferedImage.TYPE_INT_ARGB);
+		Barcode.embedBarcode(bufferedImage, LayoutUtils.getImportString("typical"));
+		ImageIO.write(bufferedImage, "png", file);
+
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, 100));
+		assertFalse(DesignLoader.isDesign(file));
+	}
+
+	private BufferedImage createNoise(int type)
+	{
+		Random random = new Random(type);
+		BufferedImage bufferedImage = new BufferedImage(800, 600, type);
+		for (int x=0; x<bufferedImage.getWidth(); x++)
+		{
+			for (int y=0; y<bufferedImage.getHeight(); y++)
+			{
+				bufferedImage.setRGB(x, y, random.nextInt());
+			}
+		}
+		return bufferedImage;
+	}
+
+	/**
+	 * Other text chunks should be skipped over, however long they are.
+	 */
+	@Test
+	public void testReadTextChunkSkipsOtherText() throws Exception
+	{
+		byte[] comment = new byte[200000];
+		Arrays.fill(comment, (byte)'x');
+		byte[] keyword = "Comment\0".getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(keyword, 0, comment, 0, keyword.length);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = startPng(bytes, 700, 700);
+		writeChunk(out, "tEXt", comment);
+		writeChunk(out, "tEXt", (DesignWriter.TEXT_KEYWORD + "\0abc").getBytes(StandardCharsets.ISO_8859_1));
+		writeChunk(out, "IEND", new byte[0]);
+
+		File file = folder.newFile("design.png");
+		Files.write(file.toPath(), bytes.toByteArray());
+		assertEquals("abc", DesignLoader.readTextChunk(file));
+		assertTrue(DesignLoader.isDesign(file));
+	}
+
+	/**
+	 * A text chunk claiming to be huge shouldn't be read into memory.
+	 */
+	@Test
+	public void testReadTextChunkForgedLength() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = startPng(bytes, 700, 700);
+		out.writeInt(0x7ffffff0);
+		out.writeBytes("tEXt");
+		out.writeBytes(DesignWriter.TEXT_KEYWORD + "\0abc");
+
+		File file = folder.newFile("design.png");
+		Files.write(file.toPath(), bytes.toByteArray());
+		assertNull(DesignLoader.readTextChunk(file));
+		assertFalse(DesignLoader.isDesign(file));
+	}
+
+	/**
+	 * A header claiming an enormous width should be rejected, not turned
+	 * into a row buffer.
+	 */
+	@Test
+	public void testIsDesignForgedWidth() throws Exception
+	{
+		for (int width : new int[] {0x7fffffff, 0x40000000, 100000})
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = startPng(bytes, width, 700);
+			writeChunk(out, "IDAT", new byte[] {0x78, (byte)0x9c, 0x03, 0x00, 0x00, 0x00, 0x00, 0x01});
+			writeChunk(out, "IEND", new byte[0]);
+
+			File file = folder.newFile("forged" + width + ".png");
+			Files.write(file.toPath(), bytes.toByteArray());
+			assertFalse("Width " + width, DesignLoader.isDesign(file));
+		}
+	}
+
+	/**
+	 * Writes the PNG signature and an 8 bit RGBA header.
+	 */
+	private DataOutputStream startPng(ByteArrayOutputStream bytes, int width, int height) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(new byte[] {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+		headerOut.writeInt(width);
+		headerOut.writeInt(height);
+		headerOut.write(new byte[] {8, 6, 0, 0, 0});
+		writeChunk(out, "IHDR", header.toByteArray());
+		return out;
+	}
+
+	private void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException
+	{
+		byte[] typeBytes = type.getBytes(StandardCharsets.ISO_8859_1);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+
+		out.writeInt(data.length);
+		out.write(typeBytes);
+		out.write(data);
+		out.writeInt((int)crc.getValue());
+	}
+
+	@Test(expected = InvalidBarcodeException.class)
+	public void testReadBarcodeSmallImage() throws Exception
+	{
+		File file = folder.newFile("small.png");
+		ImageIO.write(new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB), "png", file);
+
+		DesignLoader.readBarcode(file);
+	}
+
+	@Test(expected = InvalidBarcodeException.class)
+	public void testReadBarcodeNotAnImage() throws Exception
+	{
+		DesignLoader.readBarcode(LayoutUtils.getTextFiles()[0]);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Point;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures the memory allocated while the design statistics are updated,
+ * by repeatedly placing and removing a building. Not run as part of the
+ * tests; run the main method by hand.
+ *
+ * @author David Green
+ */
+public class DesignStatsBenchmark
+{
+	private static final int WARMUP_ITERATIONS = 100000;
+	private static final int ITERATIONS = 1000000;
+
+	public static void main(String[] args) throws Exception
+	{
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		Castle castle = new Castle();
+		castle.importData(LayoutUtils.getImportString("typical"));
+		castle.setUndoLimit(0);
+
+		//A building that isn't limited, so only the statistics are updated
+		Set<Point> buildingCoords = new HashSet<Point>();
+		for (int i=0; i<3; i++)
+		{
+			for (int j=0; j<3; j++)
+			{
+				buildingCoords.add(new Point(i, j));
+			}
+		}
+
+		run(castle, buildingCoords, WARMUP_ITERATIONS);
+
+		long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+		long timeBefore = System.nanoTime();
+		run(castle, buildingCoords, ITERATIONS);
+		long time = System.nanoTime() - timeBefore;
+		long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		//Each iteration updates the statistics for every tile twice
+		long updates = 2L * ITERATIONS * buildingCoords.size();
+		System.out.printf("%d stats updates: %.2f bytes allocated and %.1f ns per update%n",
+			updates, (double)allocated / updates, (double)time / updates);
+	}
+
+	private static void run(Castle castle, Set<Point> buildingCoords, int iterations)
+	{
+		for (int i=0; i<iterations; i++)
+		{
+			castle.addBuilding(buildingCoords, BuildingType.SMALL_TOWER);
+			castle.removeBuilding(castle.getGridData(0, 0));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import javax.imageio.ImageIO;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author David Green
+ */
+public class DesignWriterTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The export string should be readable both from the text chunk and
+	 * from the barcode.
+	 */
+	@Test
+	public void testWrite() throws Exception
+	{
+		for (File textFile : LayoutUtils.getTextFiles())
+		{
+			String data = LayoutUtils.getImportString(textFile.getName());
+			File file = folder.newFile(textFile.getName() + ".png");
+			DesignWriter.write(new BufferedImage(750, 750, BufferedImage.TYPE_INT_ARGB), data, file);
+
+			assertEquals(data, DesignLoader.readTextChunk(file));
+			assertEquals(data, DesignLoader.readBarcode(file));
+			assertEquals(data, Barcode.extractBarcode(ImageIO.read(file)));
+		}
+	}
+
+	@Test
+	public void testWriteOverLongerFile() throws Exception
+	{
+		File file = folder.newFile("design.png");
+		DesignWriter.write(new BufferedImage(1500, 1500, BufferedImage.TYPE_INT_ARGB), LayoutUtils.getImportString("typical"), file);
+		String data = LayoutUtils.getImportString("empty");
+		DesignWriter.write(new BufferedImage(750, 750, BufferedImage.TYPE_INT_ARGB), data, file);
+
+		assertEquals(data, DesignLoader.readDesign(file));
+		assertEquals(750, ImageIO.read(file).getWidth());
+	}
+}
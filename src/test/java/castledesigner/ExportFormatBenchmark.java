@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+/**
+ * Compares the size and import time of the plain, run length and compact
+ * export formats. Not run as part of the tests; run the main method by
+ * hand, optionally with the names of designs to use.
+ *
+ * @author David Green
+ */
+public class ExportFormatBenchmark
+{
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int ITERATIONS = 100000;
+
+	public static void main(String[] args) throws Exception
+	{
+		String[] designs = args.length > 0 ? args : new String[] {"typical", "everything_v3"};
+		for (String design : designs)
+		{
+			Castle castle = new Castle();
+			castle.importData(LayoutUtils.getImportString(design));
+
+			report(design, "plain", castle.getGridDataExport());
+			report(design, "run length", castle.getGridDataExport(true));
+			report(design, "compact", castle.getCompactExport());
+		}
+	}
+
+	private static void report(String design, String format, String exportString) throws UnsupportedVersionException
+	{
+		Castle castle = new Castle();
+		run(castle, exportString, WARMUP_ITERATIONS);
+
+		long timeBefore = System.nanoTime();
+		run(castle, exportString, ITERATIONS);
+		long time = System.nanoTime() - timeBefore;
+
+		System.out.printf("%s, %s: %d characters, %.1f us per import%n",
+			design, format, exportString.length(), time / 1000.0 / ITERATIONS);
+	}
+
+	private static void run(Castle castle, String exportString, int iterations) throws UnsupportedVersionException
+	{
+		for (int i=0; i<iterations; i++)
+		{
+			castle.importData(exportString);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the time taken and memory allocated importing a design. Not run
+ * as part of the tests; run the main method by hand, optionally with the
+ * names of designs to import.
+ *
+ * @author David Green
+ */
+public class ImportBenchmark
+{
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int ITERATIONS = 100000;
+
+	public static void main(String[] args) throws Exception
+	{
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		String[] designs = args.length > 0 ? args : new String[] {"typical_v3", "everything_v3"};
+		for (String design : designs)
+		{
+			String importString = LayoutUtils.getImportString(design);
+			Castle castle = new Castle();
+
+			run(castle, importString, WARMUP_ITERATIONS);
+
+			long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+			long timeBefore = System.nanoTime();
+			run(castle, importString, ITERATIONS);
+			long time = System.nanoTime() - timeBefore;
+			long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+			System.out.printf("%s: %.0f bytes allocated and %.1f us per import%n",
+				design, (double)allocated / ITERATIONS, time / 1000.0 / ITERATIONS);
+		}
+	}
+
+	private static void run(Castle castle, String importString, int iterations) throws UnsupportedVersionException
+	{
+		for (int i=0; i<iterations; i++)
+		{
+			castle.importData(importString);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class IntIntMapTest
+{
+	@Test
+	public void testAgainstHashMap()
+	{
+		IntIntMap instance = new IntIntMap();
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		Random random = new Random(7);
+
+		for (int i=0; i<200000; i++)
+		{
+			//A small key range so that keys collide and get removed often
+			int key = random.nextInt(2000);
+			if (random.nextInt(3) == 0)
+			{
+				Integer value = expected.remove(key);
+				assertEquals(value == null ? IntIntMap.NO_VALUE : value, instance.remove(key));
+			}
+			else
+			{
+				int value = random.nextInt(Integer.MAX_VALUE);
+				expected.put(key, value);
+				instance.put(key, value);
+			}
+			assertEquals(expected.size(), instance.size());
+		}
+
+		for (int key=0; key<2000; key++)
+		{
+			Integer value = expected.get(key);
+			assertEquals(value == null ? IntIntMap.NO_VALUE : value, instance.get(key));
+		}
+
+		int entries = 0;
+		for (int slot=0; slot<instance.getCapacity(); slot++)
+		{
+			if (instance.isUsed(slot))
+			{
+				assertEquals(expected.get(instance.getKey(slot)).intValue(), instance.getValue(slot));
+				entries++;
+			}
+		}
+		assertEquals(expected.size(), entries);
+	}
+
+	@Test
+	public void testZeroKeyAndClear()
+	{
+		IntIntMap instance = new IntIntMap();
+		instance.put(0, 5);
+		assertEquals(5, instance.get(0));
+
+		IntIntMap copy = new IntIntMap(instance);
+		instance.clear();
+		assertEquals(IntIntMap.NO_VALUE, instance.get(0));
+		assertEquals(0, instance.size());
+		assertEquals(5, copy.get(0));
+	}
+}
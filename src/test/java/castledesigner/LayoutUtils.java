@@ -20,7 +20,6 @@
  */
 package castledesigner;
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
@@ -29,7 +28,6 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
-import javax.imageio.ImageIO;
 
 /**
  * Utility class to load the layouts in the resource directory.
@@ -72,8 +70,7 @@ public class LayoutUtils
 	{
 		if (file.getName().endsWith(PNG_EXTENSION))
 		{
-			BufferedImage bufferedImage = ImageIO.read(file);
-			return Barcode.extractBarcode(bufferedImage);
+			return DesignLoader.readDesign(file);
 		}
 		else
 		{
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class SharedCastleTest
+{
+	private static final int READERS = 4;
+	private static final int EDITS = 2000;
+
+	@Test
+	public void testReadsWhileEditing() throws Exception
+	{
+		//The design flips between just the Keep, and the Keep surrounded by moat
+		final CastleEdit addMoat = new CastleEdit()
+		{
+			public void edit(Castle castle)
+			{
+				for (int i=0; i<Castle.CASTLE_BOUNDRY_LENGTH; i++)
+				{
+					castle.addBuilding(Collections.singleton(new Point(i, 0)), BuildingType.MOAT);
+					castle.addBuilding(Collections.singleton(new Point(i, Castle.CASTLE_BOUNDRY_LENGTH - 1)), BuildingType.MOAT);
+				}
+				castle.setWorldAge(2);
+			}
+		};
+
+		Castle before = new Castle();
+		Castle after = new Castle();
+		after.batch(addMoat);
+		final Set<Long> fingerprints = new HashSet<Long>(Arrays.asList(before.getFingerprint(), after.getFingerprint()));
+		final Set<Integer> goldTotals = new HashSet<Integer>(Arrays.asList(before.getTotalResource(BuildingResource.GOLD), after.getTotalResource(BuildingResource.GOLD)));
+		final Set<Integer> worldAges = new HashSet<Integer>(Arrays.asList(1, 2));
+		final Set<List<String>> designErrors = new HashSet<List<String>>();
+		designErrors.add(new ArrayList<String>(before.getDesignErrors()));
+		designErrors.add(new ArrayList<String>(after.getDesignErrors()));
+		assertEquals(2, fingerprints.size());
+		assertEquals(2, goldTotals.size());
+
+		final SharedCastle instance = new SharedCastle();
+		final AtomicBoolean editing = new AtomicBoolean(true);
+		ExecutorService executorService = Executors.newFixedThreadPool(READERS);
+		try
+		{
+			List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+			for (int i=0; i<READERS; i++)
+			{
+				readers.add(executorService.submit(new Callable<Integer>()
+				{
+					public Integer call()
+					{
+						int reads = 0;
+						while (editing.get())
+						{
+							assertTrue(fingerprints.contains(instance.getFingerprint()));
+							assertTrue(goldTotals.contains(instance.getTotalResource(BuildingResource.GOLD)));
+							assertTrue(worldAges.contains(instance.getWorldAge()));
+							assertTrue(designErrors.contains(instance.getDesignErrors()));
+
+							BuildingType buildingType = instance.getBuildingType(reads % Castle.CASTLE_BOUNDRY_LENGTH, 0);
+							assertTrue(buildingType == null || buildingType == BuildingType.MOAT);
+
+							CastleSnapshot snapshot = instance.getSnapshot();
+							assertTrue(fingerprints.contains(snapshot.getFingerprint()));
+							assertEquals(snapshot.getBuildingType(0, 0), snapshot.getBuildingType(51, 51));
+							reads++;
+						}
+						return reads;
+					}
+				}));
+			}
+
+			for (int i=0; i<EDITS; i++)
+			{
+				instance.edit(addMoat);
+				assertTrue(instance.undo());
+			}
+			editing.set(false);
+
+			for (Future<Integer> reader : readers)
+			{
+				assertTrue(reader.get() > 0);
+			}
+		}
+		finally
+		{
+			editing.set(false);
+			executorService.shutdown();
+		}
+
+		assertEquals(before.getGridDataExport(), instance.getGridDataExport());
+		assertEquals(before.getFingerprint(), instance.getSnapshot().getFingerprint());
+	}
+
+	@Test
+	public void testChanges() throws Exception
+	{
+		SharedCastle instance = new SharedCastle();
+		instance.addBuilding(Collections.singleton(new Point(3, 4)), BuildingType.KILLING_PIT);
+		assertEquals(BuildingType.KILLING_PIT, instance.getBuildingType(3, 4));
+		assertEquals(BuildingType.KILLING_PIT, instance.getSnapshot().getBuildingType(3, 4));
+		assertEquals(1, instance.getNumberOfBuildings(BuildingType.KILLING_PIT));
+
+		instance.removeBuilding(3, 4);
+		assertNull(instance.getGridData(3, 4));
+		instance.removeBuilding(3, 4);
+
+		instance.importData(LayoutUtils.getImportString("typical"));
+		Castle castle = new Castle();
+		castle.importData(LayoutUtils.getImportString("typical"));
+		assertEquals(castle.getGridDataExport(), instance.getGridDataExport());
+		assertEquals(castle.getTotalBuildingTime(), instance.getTotalBuildingTime());
+	}
+
+	/**
+	 * Listeners are called after the write lock is let go, so one reading
+	 * the castle back mustn't deadlock.
+	 */
+	@Test(timeout = 10000)
+	public void testListenerReadsCastle() throws Exception
+	{
+		final SharedCastle instance = new SharedCastle();
+		final List<BuildingType> seen = new ArrayList<BuildingType>();
+		instance.addDesignListener(new DesignListener()
+		{
+			public void designChanged()
+			{
+				seen.add(instance.getBuildingType(1, 1));
+				instance.getGridDataExport();
+			}
+		});
+
+		instance.addBuilding(Collections.singleton(new Point(1, 1)), BuildingType.MOAT);
+		assertEquals(Arrays.asList(BuildingType.MOAT), seen);
+
+		//Nothing changes, so nobody is told
+		instance.removeBuilding(2, 2);
+		assertEquals(1, seen.size());
+
+		instance.undo();
+		assertEquals(Arrays.asList(BuildingType.MOAT, null), seen);
+
+		//Another thread can still read and write afterwards
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			executor.submit(new Callable<Void>()
+			{
+				public Void call()
+				{
+					instance.addBuilding(Collections.singleton(new Point(1, 1)), BuildingType.STONE_WALL);
+					return null;
+				}
+			}).get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertEquals(BuildingType.STONE_WALL, instance.getBuildingType(1, 1));
+		assertEquals(3, seen.size());
+	}
+}
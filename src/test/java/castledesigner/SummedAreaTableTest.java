@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class SummedAreaTableTest
+{
+	private static final int LENGTH = Castle.CASTLE_BOUNDRY_LENGTH;
+
+	@Test
+	public void testCount()
+	{
+		Random random = new Random(7);
+
+		for (int round=0; round<20; round++)
+		{
+			Bitboard bitboard = new Bitboard();
+			for (int i=0; i<LENGTH; i++)
+			{
+				for (int j=0; j<LENGTH; j++)
+				{
+					if (random.nextInt(3) == 0) bitboard.set(Castle.tileIndex(i, j));
+				}
+			}
+			SummedAreaTable instance = new SummedAreaTable(bitboard);
+
+			for (int check=0; check<2000; check++)
+			{
+				int x = random.nextInt(LENGTH + 10) - 5;
+				int y = random.nextInt(LENGTH + 10) - 5;
+				int width = random.nextInt(LENGTH);
+				int height = random.nextInt(LENGTH);
+
+				assertEquals(bitboard.count(x, y, width, height), instance.count(x, y, width, height));
+				assertEquals(bitboard.intersects(x, y, width, height), instance.intersects(x, y, width, height));
+			}
+			assertEquals(bitboard.cardinality(), instance.count(0, 0, LENGTH, LENGTH));
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		SummedAreaTable instance = new SummedAreaTable(new Bitboard());
+
+		assertEquals(0, instance.count(0, 0, LENGTH, LENGTH));
+		assertFalse(instance.intersects(0, 0, LENGTH, LENGTH));
+		assertEquals(0, instance.count(10, 10, 0, 0));
+	}
+}
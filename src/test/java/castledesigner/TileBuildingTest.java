@@ -58,4 +58,38 @@ public class TileBuildingTest
 
 		assertEquals(buildingId, tileBuilding.getBuildingId());
 	}
+
+	@Test
+	public void testPackUnpack()
+	{
+		for (BuildingType buildingType : BuildingType.values())
+		{
+			for (int buildingId : new int[] {0, 1, 934, TileBuilding.MAX_BUILDING_ID})
+			{
+				int tile = TileBuilding.pack(buildingType, buildingId);
+				assertNotEquals(TileBuilding.EMPTY, tile);
+				assertEquals(buildingType, TileBuilding.unpackType(tile));
+				assertEquals(buildingType.ordinal(), TileBuilding.unpackOrdinal(tile));
+				assertEquals(buildingId, TileBuilding.unpackId(tile));
+
+				TileBuilding tileBuilding = TileBuilding.unpack(tile);
+				assertEquals(buildingType, tileBuilding.getBuildingType());
+				assertEquals(buildingId, tileBuilding.getBuildingId());
+			}
+		}
+	}
+
+	@Test
+	public void testUnpackEmpty()
+	{
+		assertNull(TileBuilding.unpack(TileBuilding.EMPTY));
+		assertNull(TileBuilding.unpackType(TileBuilding.EMPTY));
+		assertEquals(-1, TileBuilding.unpackOrdinal(TileBuilding.EMPTY));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPackInvalidId()
+	{
+		TileBuilding.pack(BuildingType.MOAT, TileBuilding.MAX_BUILDING_ID + 1);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2012-2016 David Green
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package castledesigner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author David Green
+ */
+public class UndoJournalTest
+{
+	private static class Recorder implements UndoJournal.Replay
+	{
+		private final List<Integer> restored = new ArrayList<Integer>();
+
+		public void restore(int index, int value)
+		{
+			restored.add(index);
+			restored.add(value);
+		}
+	}
+
+	@Test
+	public void testUndoRedoOrder()
+	{
+		UndoJournal instance = new UndoJournal(1024);
+		instance.record(1, 10, 11);
+		instance.record(2, 20, 21);
+		instance.endStep();
+
+		Recorder recorder = new Recorder();
+		assertTrue(instance.undo(recorder));
+		assertEquals(Arrays.asList(2, 20, 1, 10), recorder.restored);
+		assertFalse(instance.undo(recorder));
+
+		recorder = new Recorder();
+		assertTrue(instance.redo(recorder));
+		assertEquals(Arrays.asList(1, 11, 2, 21), recorder.restored);
+		assertFalse(instance.redo(recorder));
+	}
+
+	@Test
+	public void testEmptyStepIgnored()
+	{
+		UndoJournal instance = new UndoJournal(1024);
+		instance.endStep();
+		assertFalse(instance.canUndo());
+	}
+
+	@Test
+	public void testOldestStepsForgotten()
+	{
+		//Room for 100 single change steps, wrapping around many times
+		UndoJournal instance = new UndoJournal(100 * 5 * 4);
+		for (int i=0; i<10000; i++)
+		{
+			instance.record(i, i, i + 1);
+			instance.endStep();
+		}
+		assertEquals(100 * 5 * 4, instance.getMemoryUsed());
+
+		Recorder recorder = new Recorder();
+		int undone = 0;
+		while (instance.undo(recorder)) undone++;
+		assertEquals(100, undone);
+		assertEquals(9999, (int)recorder.restored.get(0));
+		assertEquals(9900, (int)recorder.restored.get(recorder.restored.size() - 1));
+
+		//Redoing everything gets back to where we were
+		recorder = new Recorder();
+		while (instance.redo(recorder));
+		assertEquals(200, recorder.restored.size());
+		assertEquals(10000, (int)recorder.restored.get(199));
+	}
+
+	@Test
+	public void testStepTooBig()
+	{
+		UndoJournal instance = new UndoJournal(10 * 4);
+		instance.record(1, 0, 1);
+		instance.endStep();
+		assertTrue(instance.canUndo());
+
+		for (int i=0; i<10; i++) instance.record(i, 0, 1);
+		instance.endStep();
+		assertFalse(instance.canUndo());
+		assertFalse(instance.canRedo());
+
+		instance.record(1, 0, 1);
+		instance.endStep();
+		assertTrue(instance.canUndo());
+	}
+
+	@Test
+	public void testBufferAllocatedOnFirstRecord()
+	{
+		UndoJournal instance = new UndoJournal(1 << 20);
+		assertEquals(0, instance.getMemoryUsed());
+		instance.endStep();
+		assertEquals(0, instance.getMemoryUsed());
+
+		instance.record(1, 0, 1);
+		instance.endStep();
+		assertTrue(instance.getMemoryUsed() > 0);
+		assertTrue(instance.canUndo());
+	}
+
+	@Test
+	public void testGrowsOnDemand()
+	{
+		UndoJournal instance = new UndoJournal(1 << 20);
+		assertTrue(instance.getMemoryUsed() < 1 << 20);
+
+		for (int i=0; i<1000; i++) instance.record(i, 0, 1);
+		instance.endStep();
+
+		Recorder recorder = new Recorder();
+		assertTrue(instance.undo(recorder));
+		assertEquals(2000, recorder.restored.size());
+		assertEquals(999, (int)recorder.restored.get(0));
+	}
+}